@@ -0,0 +1,22 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// executa o JMH gravando os resultados em JSON (jmh-result.json) quando nada for indicado
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        var options = new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        if (!options.contains("-rff")) {
+            options.add("-rff");
+            options.add("jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+
+}
@@ -0,0 +1,30 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// corpus fixo usado pelos benchmarks, empacotado junto com o jar
+public class Corpus {
+
+    static final String[] FILES = { "Main.jack", "Square.jack", "SquareGame.jack", "Keywords.jack" };
+
+    public static List<byte[]> load(String... names) {
+        var sources = new ArrayList<byte[]>();
+        for (String name : names) {
+            try (var in = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+                if (in == null) throw new IllegalStateException("missing corpus file " + name);
+                sources.add(in.readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return sources;
+    }
+
+    public static List<byte[]> all() {
+        return load(FILES);
+    }
+
+}
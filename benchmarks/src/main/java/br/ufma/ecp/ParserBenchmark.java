@@ -0,0 +1,78 @@
+package br.ufma.ecp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// classes/s de Parser.parse(), com e sem a arvore sintatica em XML (contador auxiliar "classes")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    private List<byte[]> corpus;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long classes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            classes = 0;
+        }
+    }
+
+    @Setup
+    public void load() {
+        corpus = Corpus.all();
+    }
+
+    @Benchmark
+    public void parseWithXml(Counters counters, Blackhole bh) {
+        for (byte[] input : corpus) {
+            var parser = new Parser(input, true);
+            parser.parse();
+            bh.consume(parser.XMLOutput());
+            bh.consume(parser.VMOutput());
+            counters.classes++;
+        }
+    }
+
+    @Benchmark
+    public void parseWithoutXml(Counters counters, Blackhole bh) {
+        for (byte[] input : corpus) {
+            var parser = new Parser(input, false);
+            parser.parse();
+            bh.consume(parser.VMOutput());
+            counters.classes++;
+        }
+    }
+
+    @Benchmark
+    public void parseTokenStream(Counters counters, Blackhole bh) {
+        for (byte[] input : corpus) {
+            var parser = new Parser(new Scanner(input).tokenize(), false);
+            parser.parse();
+            bh.consume(parser.VMOutput());
+            counters.classes++;
+        }
+    }
+
+}
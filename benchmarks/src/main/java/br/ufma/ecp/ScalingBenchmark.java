@@ -0,0 +1,72 @@
+package br.ufma.ecp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// compilacao de uma unica classe sintetica de tamanho crescente (contador auxiliar "lines")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScalingBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int subroutines;
+
+    @Param({ "3" })
+    public int depth;
+
+    @Param({ "0.1" })
+    public double stringDensity;
+
+    private byte[] source;
+    private long lines;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+    }
+
+    @Setup
+    public void generate() {
+        var text = new JackProgramGenerator(42)
+            .subroutines(subroutines)
+            .statements(100)
+            .depth(depth)
+            .stringDensity(stringDensity)
+            .generate("Gen");
+        source = text.getBytes(StandardCharsets.UTF_8);
+        lines = text.lines().count();
+    }
+
+    @Benchmark
+    public String compile(Counters counters) {
+        var parser = new Parser(new Scanner(source).tokenize(), false);
+        parser.parse();
+        counters.lines += lines;
+        return parser.VMOutput();
+    }
+
+}
@@ -0,0 +1,77 @@
+package br.ufma.ecp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+// tokens/s do Scanner sobre o corpus fixo (contador auxiliar "tokens")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+
+    private List<byte[]> corpus;
+    private List<byte[]> keywords;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void load() {
+        corpus = Corpus.all();
+        keywords = Corpus.load("Keywords.jack");
+    }
+
+    private static long scan(byte[] input) {
+        long n = 0;
+        var scanner = new Scanner(input);
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken())
+            n++;
+        return n;
+    }
+
+    @Benchmark
+    public void nextToken(Counters counters) {
+        for (byte[] input : corpus)
+            counters.tokens += scan(input);
+    }
+
+    @Benchmark
+    public void nextTokenKeywords(Counters counters) {
+        for (byte[] input : keywords)
+            counters.tokens += scan(input);
+    }
+
+    @Benchmark
+    public void tokenize(Counters counters) {
+        for (byte[] input : corpus)
+            counters.tokens += new Scanner(input).tokenize().size();
+    }
+
+}
@@ -0,0 +1,75 @@
+package br.ufma.ecp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.vm.VMExecutor;
+import br.ufma.ecp.vm.VMProgram;
+
+// operacoes VM/s do VMExecutor num laco com aritmetica, desvios e chamadas; o contador "ops" e o que interessa
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VMExecutorBenchmark {
+
+    private static final String SOURCE = String.join("\n",
+        "class Bench {",
+        "    function int run() {",
+        "        var int i, acc;",
+        "        let i = 0;",
+        "        let acc = 0;",
+        "        while (i < 10000) {",
+        "            let acc = acc + Bench.step(i, acc) - (i & 15);",
+        "            let i = i + 1;",
+        "        }",
+        "        return acc;",
+        "    }",
+        "    function int step(int i, int acc) {",
+        "        if ((i & 1) = 0) { return i + acc; }",
+        "        return acc - i;",
+        "    }",
+        "}");
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long ops;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            ops = 0;
+        }
+    }
+
+    private VMProgram program;
+
+    @Setup
+    public void setup() {
+        program = VMProgram.parse(List.of(new JackCompiler(true).compile(SOURCE).vm()));
+    }
+
+    @Benchmark
+    public int run(Counters counters) {
+        var executor = new VMExecutor(program);
+        int result = executor.run("Bench.run", Long.MAX_VALUE);
+        counters.ops += executor.steps();
+        return result;
+    }
+
+}
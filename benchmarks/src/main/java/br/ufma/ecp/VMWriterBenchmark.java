@@ -0,0 +1,50 @@
+package br.ufma.ecp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+// instrucoes/s do VMWriter: cada operacao e uma instrucao VM emitida
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VMWriterBenchmark {
+
+    private static final int ROUNDS = 100;
+    private static final int INSTRUCTIONS = ROUNDS * 10;
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public String write() {
+        var vmWriter = new VMWriter();
+        for (int i = 0; i < ROUNDS; i++) {
+            vmWriter.writeLabel("WHILE_EXP0");
+            vmWriter.writePush(Segment.LOCAL, i & 7);
+            vmWriter.writePush(Segment.CONST, i);
+            vmWriter.writeArithmetic(Command.LT);
+            vmWriter.writeArithmetic(Command.NOT);
+            vmWriter.writeIf("WHILE_END0");
+            vmWriter.writePush(Segment.THIS, 2);
+            vmWriter.writeCall("Math.multiply", 2);
+            vmWriter.writePop(Segment.ARG, 1);
+            vmWriter.writeGoto("WHILE_EXP0");
+        }
+        return vmWriter.vmOutput();
+    }
+
+}
@@ -1,102 +1,527 @@
 package br.ufma.ecp;
 
-import static br.ufma.ecp.token.TokenType.*;
-
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import br.ufma.ecp.token.Token; 
+import br.ufma.ecp.hack.HackAssembler;
+import br.ufma.ecp.jfr.CompileUnitEvent;
+import br.ufma.ecp.jfr.FileIOEvent;
+import br.ufma.ecp.vm.VMProgram;
+import br.ufma.ecp.vm.VMTranslator;
 
-public class App 
+public class App
 {
 
-    
-    public static void saveToFile(String fileName, String output) {
-  
-       
-        FileOutputStream outputStream;
+    // resultado da compilacao de um unico arquivo .jack
+    record CompileResult(String inputFileName, boolean success, String diagnostics, CompileStats stats) {
+    }
+
+
+    // acima deste tamanho o fonte e mapeado em memoria em vez de copiado para o heap
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    // o fonte e entregue ao Scanner sem conversao para String. Arquivos pequenos (quase todos) sao lidos
+    // para o heap: um arquivo mapeado que e truncado durante a varredura gera SIGBUS (InternalError)
+    private static ByteBuffer fromFile(File file) throws IOException {
+        var event = new FileIOEvent();
+        event.begin();
+        ByteBuffer buffer;
+        if (Files.size(file.toPath()) > MAP_THRESHOLD) {
+            try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        }
+        ioEvent(event, file.getPath(), "read", buffer.remaining());
+        return buffer;
+    }
+
+    private static void ioEvent(FileIOEvent event, String path, String operation, long bytes) {
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.operation = operation;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+
+    // cada unidade tem seu proprio Parser/Scanner/VMWriter/SymbolTable e sua propria saida de erros
+    static CompileResult compile(File file) {
+        return compile(file, null);
+    }
+
+    static CompileResult compile(File file, BuildCache cache) {
+        return compile(file, cache, false);
+    }
+
+    // com optimize = true o codigo passa pelas otimizacoes do VMWriter (opcao -O)
+    static CompileResult compile(File file, BuildCache cache, boolean optimize) {
+        var inputFileName = file.getAbsolutePath();
+        var pos = inputFileName.lastIndexOf('.');
+        var outputFileName = inputFileName.substring(0, pos) + ".vm";
+
+        var diagnostics = new ByteArrayOutputStream();
+        var err = new PrintStream(diagnostics, true, StandardCharsets.UTF_8);
+        var stats = new CompileStats(inputFileName);
+        long allocated = CompileStats.allocatedBytes();
+        var event = new CompileUnitEvent();
+        event.begin();
+        String className = null;
+        var success = false;
+        try {
+            long start = System.nanoTime();
+            var input = fromFile(file);
+            stats.bytesRead = input.remaining();
+            String key = null;
+            if (cache != null) {
+                key = cache.key(input, optimize ? "-O" : "");
+                if (cache.restore(key, Path.of(outputFileName))) {
+                    stats.cached = true;
+                    stats.readNanos = System.nanoTime() - start;
+                    return new CompileResult(inputFileName, true, "", stats);
+                }
+            }
+
+            // o codigo VM vai direto para um arquivo temporario, que so substitui o .vm se nao houver erros
+            var output = Path.of(outputFileName);
+            var tmp = OutputFiles.createTemp(output);
+            stats.readNanos = System.nanoTime() - start;
+            try {
+                start = System.nanoTime();
+                var scanner = new Scanner(input);
+                var tokens = scanner.tokenize();
+                stats.tokens = tokens.size();
+                stats.scanNanos = System.nanoTime() - start;
+                for (var diagnostic : scanner.diagnostics())
+                    err.println(diagnostic);
+
+                try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    var vmWriter = new VMWriter(channel);
+                    if (optimize)
+                        vmWriter.optimize();
+                    start = System.nanoTime();
+                    try {
+                        var parser = new Parser(tokens, false, vmWriter);
+                        parser.setErrorStream(err);
+                        parser.parse();
+                        className = parser.className();
+                        stats.parseNanos = System.nanoTime() - start - vmWriter.writeNanos();
+                        vmWriter.flush();
+                    } finally {
+                        stats.vmInstructions = vmWriter.instructionCount();
+                        stats.bytesWritten = vmWriter.bytesWritten();
+                        stats.writeNanos = vmWriter.writeNanos();
+                    }
+                }
+
+                if (scanner.diagnostics().isEmpty()) {
+                    var write = new FileIOEvent();
+                    write.begin();
+                    start = System.nanoTime();
+                    OutputFiles.replace(tmp, output);
+                    if (cache != null)
+                        cache.store(key, output);
+                    stats.writeNanos += System.nanoTime() - start;
+                    ioEvent(write, outputFileName, "write", stats.bytesWritten);
+                    success = true;
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            err.println("Error: " + e);
+        } catch (InternalError e) {
+            // acesso a um fonte mapeado que foi truncado por outro processo; vale so para este arquivo
+            err.println("Error: " + inputFileName + " changed while being compiled: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // erros de sintaxe ja foram reportados pelo parser
+            if (e.getMessage() != null)
+                err.println("Error: " + e.getMessage());
+        } finally {
+            if (allocated >= 0)
+                stats.allocatedBytes = CompileStats.allocatedBytes() - allocated;
+            if (event.shouldCommit()) {
+                event.className = className;
+                event.file = inputFileName;
+                event.size = stats.bytesRead;
+                event.vmInstructions = (int) stats.vmInstructions;
+                event.success = success || stats.cached;
+                event.cached = stats.cached;
+                event.commit();
+            }
+        }
+        return new CompileResult(inputFileName, success, diagnostics.toString(StandardCharsets.UTF_8), stats);
+    }
+
+
+    // compila os arquivos usando ate 'jobs' threads, devolvendo os resultados na mesma ordem da entrada
+    static List<CompileResult> compileAll(List<File> files, int jobs) {
+        return compileAll(files, jobs, null);
+    }
+
+    static List<CompileResult> compileAll(List<File> files, int jobs, BuildCache cache) {
+        return compileAll(files, jobs, cache, false);
+    }
+
+    static List<CompileResult> compileAll(List<File> files, int jobs, BuildCache cache, boolean optimize) {
+        var results = new ArrayList<CompileResult>();
+        if (jobs <= 1 || files.size() <= 1) {
+            for (File f : files)
+                results.add(compile(f, cache, optimize));
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, files.size()));
+        try {
+            var futures = new ArrayList<Future<CompileResult>>();
+            for (File f : files)
+                futures.add(executor.submit(() -> compile(f, cache, optimize)));
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(failed(files.get(i), "Error: " + e.getCause() + "\n"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(failed(files.get(i), "Error: interrupted\n"));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+
+    private static CompileResult failed(File file, String message) {
+        return new CompileResult(file.getAbsolutePath(), false, message, new CompileStats(file.getAbsolutePath()));
+    }
+
+
+    private static void usage() {
+        System.err.println("usage: App [-O] [--hack] [-j <jobs>] [--cache <dir>] [--stats[=json]] [--client[=<socket|tcp:port>]] <file.jack | directory>");
+        System.err.println("       App --watch [-O] [--hack] [-j <jobs>] [--cache <dir>] <directory>");
+        System.err.println("       App --daemon[=<socket|tcp:port>] [-O] [-j <jobs>] [--cache <dir>]");
+        System.exit(1);
+    }
+
+
+    // arquivos .jack do diretorio, em ordem fixa de saida, independente do sistema de arquivos
+    static List<File> sources(File dir) {
+        var sources = new ArrayList<File>();
+        var files = dir.listFiles();
+        if (files == null) return sources;
+        for (File f : files) {
+            if (f.isFile() && f.getName().endsWith(".jack")) {
+                sources.add(f);
+            }
+        }
+        sources.sort(Comparator.comparing(File::getName));
+        return sources;
+    }
+
+
+    // <dir>/<dir>.hack para um diretorio, <arquivo>.hack para um arquivo
+    static Path romPath(File input) {
+        var absolute = input.getAbsoluteFile();
+        if (absolute.isDirectory())
+            return absolute.toPath().resolve(absolute.getName() + ".hack");
+        var name = absolute.getName();
+        return absolute.toPath().resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".hack");
+    }
+
+    // liga os .vm do diretorio (os recem-compilados e os do SO, se estiverem la), traduz para assembly
+    // e monta a ROM no mesmo processo; devolve o numero de instrucoes Hack
+    static int buildRom(File input, Path output) throws IOException {
+        var vmFiles = new ArrayList<Path>();
+        if (input.isDirectory()) {
+            var files = input.listFiles();
+            if (files != null)
+                for (File f : files)
+                    if (f.isFile() && f.getName().endsWith(".vm"))
+                        vmFiles.add(f.toPath());
+            vmFiles.sort(Comparator.comparing(Path::toString));
+        } else {
+            var name = input.getPath();
+            vmFiles.add(Path.of(name.substring(0, name.lastIndexOf('.')) + ".vm"));
+        }
+
+        var asm = new VMTranslator(VMProgram.load(vmFiles)).translate();
+        var assembler = new HackAssembler(asm);
+        var event = new FileIOEvent();
+        event.begin();
+        var out = new StringBuilder(assembler.instructionCount() * 17);
+        assembler.writeHack(out);
+        OutputFiles.write(output, out);
+        ioEvent(event, output.toString(), "write", out.length());
+        return assembler.instructionCount();
+    }
+
+    private static boolean buildRom(File input) {
+        return buildRom(input, System.out);
+    }
+
+    private static boolean buildRom(File input, PrintStream progress) {
+        var output = romPath(input);
         try {
-            outputStream = new FileOutputStream(fileName);
-            byte[] strToBytes = output.getBytes();
-            outputStream.write(strToBytes);
-    
-            outputStream.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            long start = System.nanoTime();
+            int instructions = buildRom(input, output);
+            progress.println(String.format(Locale.ROOT, "rom %s: %d instructions in %.3f ms",
+                output, instructions, (System.nanoTime() - start) / 1e6));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    static final long WATCH_DEBOUNCE_MILLIS = 100;
+
+    // depois da compilacao inicial recompila so os arquivos alterados, na mesma JVM ja aquecida.
+    // O watcher e registrado antes da compilacao inicial, para que edicoes feitas durante ela nao se percam
+    private static void watch(DirectoryWatcher watcher, File dir, BuildCache cache, boolean optimize, boolean hack) {
+        System.out.println("watching " + dir.getAbsolutePath());
+        try (watcher) {
+            while (true)
+                recompile(watcher.awaitChanges(), dir, cache, optimize, hack);
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("Error: " + e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
 
-    private static String fromFile(File file) {        
+    // uma rodada do --watch; devolve true se a ROM foi refeita. Lotes vazios (so eventos de outros
+    // arquivos, como o .hack e o temporario que o proprio buildRom grava no diretorio) nao refazem a ROM,
+    // senao cada ROM gravada dispararia a seguinte
+    static boolean recompile(List<File> changed, File dir, BuildCache cache, boolean optimize, boolean hack) {
+        if (changed.isEmpty()) return false;
+        var failed = false;
+        for (var f : changed) {
+            long start = System.nanoTime();
+            var result = compile(f, cache, optimize);
+            System.out.println(String.format(Locale.ROOT, "%s %s in %.3f ms",
+                result.success() ? "compiled" : "failed", f.getName(), (System.nanoTime() - start) / 1e6));
+            System.err.print(result.diagnostics());
+            if (!result.success()) failed = true;
+        }
+        return hack && !failed && buildRom(dir);
+    }
+
 
-        byte[] bytes;
+    private static BuildCache openCache(String cacheDir) {
+        if (cacheDir == null) return null;
         try {
-            bytes = Files.readAllBytes(file.toPath());
-            String textoDoArquivo = new String(bytes, "UTF-8");
-            return textoDoArquivo;
+            return new BuildCache(Path.of(cacheDir));
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("Could not open cache directory: " + e.getMessage());
+            System.exit(1);
+            return null;
         }
-        return "";
-    } 
+    }
+
+
+    private static void runDaemon(SocketAddress address, int jobs, BuildCache cache, boolean optimize) {
+        if (!(address instanceof UnixDomainSocketAddress))
+            System.err.println("warning: TCP connections are not authenticated; only SOURCE and PING are accepted on " + address);
+        try (var server = new CompileDaemon(address, jobs, cache, optimize)) {
+            // um kill normal tambem remove o arquivo do socket
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.warmUp(200);
+            System.out.println("listening on " + server.localAddress());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Could not start daemon: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+
+    // envia os arquivos ao daemon; devolve false se nao ha daemon, para que o App compile localmente
+    private static boolean compileRemote(SocketAddress address, List<File> sources) {
+        var connection = DaemonClient.connect(address);
+        if (connection == null) {
+            System.err.println("no daemon on " + address + ", compiling locally");
+            return false;
+        }
+        var failed = false;
+        long nanos = 0;
+        try (connection) {
+            for (File f : sources) {
+                var reply = connection.compile(f);
+                System.out.println("compiling " + f.getAbsolutePath());
+                System.err.print(reply.body());
+                if (!reply.success()) failed = true;
+                nanos += reply.nanos();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e);
+            System.exit(1);
+        }
+        System.out.println(String.format(Locale.ROOT, "daemon: %d files in %.3f ms", sources.size(), nanos / 1e6));
+        if (failed) System.exit(1);
+        return true;
+    }
 
 
     public static void main(String[] args) {
-        if (args.length != 1) {
+        int jobs = 1;
+        String cacheDir = null;
+        String stats = null;
+        String path = null;
+        var daemon = false;
+        var client = false;
+        var watch = false;
+        var optimize = false;
+        var hack = false;
+        String address = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") || args[i].equals("--jobs")) {
+                if (i + 1 >= args.length) usage();
+                try {
+                    jobs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+                if (jobs < 1) usage();
+            } else if (args[i].equals("--cache")) {
+                if (i + 1 >= args.length) usage();
+                cacheDir = args[++i];
+            } else if (args[i].equals("--stats") || args[i].equals("--stats=text") || args[i].equals("--stats=json")) {
+                stats = args[i].endsWith("json") ? "json" : "text";
+            } else if (args[i].equals("-O")) {
+                optimize = true;
+            } else if (args[i].equals("--hack")) {
+                hack = true;
+            } else if (args[i].equals("--watch")) {
+                watch = true;
+            } else if (args[i].equals("--daemon") || args[i].startsWith("--daemon=")) {
+                daemon = true;
+                address = args[i].contains("=") ? args[i].substring(9) : null;
+            } else if (args[i].equals("--client") || args[i].startsWith("--client=")) {
+                client = true;
+                address = args[i].contains("=") ? args[i].substring(9) : null;
+            } else if (path == null) {
+                path = args[i];
+            } else {
+                usage();
+            }
+        }
+
+        SocketAddress daemonAddress = null;
+        if (daemon || client) {
+            try {
+                daemonAddress = CompileDaemon.address(address);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (daemon) {
+            runDaemon(daemonAddress, jobs, openCache(cacheDir), optimize);
+            return;
+        }
+
+        if (path == null) {
             System.err.println("Please provide a single file path argument.");
             System.exit(1);
         }
 
-        File file = new File(args[0]);
+        File file = new File(path);
 
         if (!file.exists()) {
             System.err.println("The file doesn't exist.");
             System.exit(1);
         }
 
+        var sources = new ArrayList<File>();
 
         if (file.isDirectory()) {
-            for (File f : file.listFiles()) {
-                if (f.isFile() && f.getName().endsWith(".jack")) {
-
-                    var inputFileName = f.getAbsolutePath();
-                    var pos = inputFileName.lastIndexOf('.');
-                    var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                    
-                    System.out.println("compiling " +  inputFileName);
-                    var input = fromFile(f);
-                    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                    parser.parse();
-                    var result = parser.VMOutput();
-                    saveToFile(outputFileName, result);
-                }
-
-            }
+            sources.addAll(sources(file));
 
         } else if (file.isFile()) {
+            if (watch) {
+                System.err.println("--watch needs a directory");
+                System.exit(1);
+            }
             if (!file.getName().endsWith(".jack"))  {
                 System.err.println("Please provide a file name ending with .jack");
                 System.exit(1);
-            } else {
-                var inputFileName = file.getAbsolutePath();
-                var pos = inputFileName.lastIndexOf('.');
-                var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                
-                System.out.println("compiling " +  inputFileName);
-                var input = fromFile(file);
-                var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                parser.parse();
-                var result = parser.VMOutput();
-                saveToFile(outputFileName, result);
-                
             }
+            sources.add(file);
         }
+
+        if (client && compileRemote(daemonAddress, sources)) {
+            if (hack && !buildRom(file)) System.exit(1);
+            return;
+        }
+
+        DirectoryWatcher watcher = null;
+        if (watch) {
+            try {
+                watcher = new DirectoryWatcher(file.toPath(), WATCH_DEBOUNCE_MILLIS);
+            } catch (IOException e) {
+                System.err.println("Error: " + e);
+                System.exit(1);
+            }
+        }
+
+        BuildCache cache = openCache(cacheDir);
+
+        // com --stats=json a saida padrao tem so o documento JSON; o progresso vai para a saida de erros
+        var progress = "json".equals(stats) ? System.err : System.out;
+        var failed = false;
+        var units = new ArrayList<CompileStats>();
+        for (var result : compileAll(sources, jobs, cache, optimize)) {
+            progress.println("compiling " +  result.inputFileName());
+            System.err.print(result.diagnostics());
+            if (!result.success()) failed = true;
+            units.add(result.stats());
+        }
+
+        if ("json".equals(stats))
+            System.out.print(CompileStats.toJson(units));
+        else if (stats != null)
+            System.out.print(CompileStats.toText(units));
+
+        if (cache != null)
+            progress.println("cache: " + cache.hits() + " hits, " + cache.misses() + " misses");
+
+        if (hack && !failed && !buildRom(file, progress))
+            failed = true;
+
+        if (watch) {
+            watch(watcher, file, cache, optimize, hack);
+            return;
+        }
+
+        if (failed) System.exit(1);
     }
 
-}
\ No newline at end of file
+}
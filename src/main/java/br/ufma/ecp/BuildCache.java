@@ -0,0 +1,138 @@
+package br.ufma.ecp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// cache persistente de arquivos .vm, indexado pelo hash do fonte e da versao do compilador
+public class BuildCache {
+
+    static final String COMPILER_VERSION = "1.0-SNAPSHOT";
+    private static final String PACKAGE_PATH = "br/ufma/ecp/";
+
+    private final Path dir;
+    private final String compilerVersion;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public BuildCache(Path dir) throws IOException {
+        this(dir, COMPILER_VERSION + "-" + classesHash());
+    }
+
+    BuildCache(Path dir, String compilerVersion) throws IOException {
+        this.dir = dir;
+        this.compilerVersion = compilerVersion;
+        Files.createDirectories(dir);
+    }
+
+    // uma recompilacao de qualquer classe do compilador (Scanner, VMWriter, PeepholeRule...) tambem
+    // invalida o cache: a versao inclui o hash de todos os .class de br.ufma.ecp, do diretorio ou do jar
+    static String classesHash() {
+        try {
+            URL url = Parser.class.getResource("Parser.class");
+            if (url == null) return "unknown";
+            var digest = MessageDigest.getInstance("SHA-256");
+            var classes = new TreeMap<String, byte[]>();
+            if (url.getProtocol().equals("jar")) {
+                var connection = (JarURLConnection) url.openConnection();
+                connection.setUseCaches(false);
+                try (var jar = connection.getJarFile()) {
+                    for (var entries = jar.entries(); entries.hasMoreElements();) {
+                        var entry = entries.nextElement();
+                        if (entry.getName().startsWith(PACKAGE_PATH) && entry.getName().endsWith(".class")) {
+                            try (var in = jar.getInputStream(entry)) {
+                                classes.put(entry.getName(), in.readAllBytes());
+                            }
+                        }
+                    }
+                }
+            } else {
+                var root = Path.of(url.toURI()).getParent();
+                try (var files = Files.walk(root)) {
+                    for (var file : (Iterable<Path>) files::iterator)
+                        if (file.toString().endsWith(".class"))
+                            classes.put(PACKAGE_PATH + root.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+                }
+            }
+            for (var entry : classes.entrySet()) {
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update(entry.getValue());
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            // sem como identificar as classes, cada execucao usa uma versao nova e nao reaproveita nada
+            return "unknown-" + System.nanoTime();
+        }
+    }
+
+    public String key(ByteBuffer source) {
+        return key(source, "");
+    }
+
+    // opcoes que mudam o codigo gerado (como -O) tambem fazem parte da chave
+    public String key(ByteBuffer source, String options) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(compilerVersion.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(options.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // devolve true se a saida foi mantida ou restaurada a partir do cache
+    public boolean restore(String key, Path output) throws IOException {
+        var cached = dir.resolve(key + ".vm");
+        if (!Files.isRegularFile(cached)) {
+            misses.incrementAndGet();
+            return false;
+        }
+        if (!Files.isRegularFile(output) || Files.mismatch(cached, output) != -1)
+            copy(cached, output);
+        hits.incrementAndGet();
+        return true;
+    }
+
+    public void store(String key, Path output) throws IOException {
+        copy(output, dir.resolve(key + ".vm"));
+    }
+
+    // nos dois sentidos a copia passa por um temporario, como a escrita normal do .vm:
+    // quem le o destino nunca ve um arquivo pela metade
+    private static void copy(Path source, Path target) throws IOException {
+        var tmp = OutputFiles.createTemp(target);
+        try {
+            // copia o conteudo para o temporario ja criado, que fica com as permissoes dele
+            try (var out = Files.newOutputStream(tmp)) {
+                Files.copy(source, out);
+            }
+            OutputFiles.replace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+}
@@ -0,0 +1,13 @@
+package br.ufma.ecp;
+
+import java.util.List;
+
+// resultado de JackCompiler.compile: o codigo VM gerado (como texto e como VMCode, para quem vai executar
+// ou traduzir sem reler o texto) e os erros lexicos, sintaticos e semanticos
+public record CompilationResult(String className, String vm, List<Diagnostic> diagnostics, int vmInstructions, VMCode code) {
+
+    public boolean success() {
+        return diagnostics.isEmpty();
+    }
+
+}
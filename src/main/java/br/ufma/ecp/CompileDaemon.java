@@ -0,0 +1,346 @@
+package br.ufma.ecp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// processo residente que mantem o compilador carregado e com o JIT aquecido.
+// Protocolo em texto, uma requisicao por linha, na mesma conexao:
+//   COMPILE <caminho>      compila o arquivo .jack e grava o .vm ao lado, como o App
+//   SOURCE <n>\n<n bytes>  compila o fonte recebido em memoria e devolve o codigo VM
+//   PING | SHUTDOWN
+// Cada resposta e "OK|ERROR <nanos> <n>\n" seguida de n bytes (codigo VM ou diagnosticos),
+// onde nanos e o tempo de compilacao dentro do daemon, ja com o JIT aquecido.
+// O socket Unix so aceita o dono do daemon. TCP nao tem autenticacao: qualquer usuario da maquina
+// conecta, por isso la so valem SOURCE e PING, que nao tocam no sistema de arquivos nem param o daemon.
+// Cada conexao tem a sua thread; o pool de -j threads so executa as compilacoes.
+public class CompileDaemon implements Closeable {
+
+    static final String DEFAULT_SOCKET = "jackc.sock";
+    static final String TCP_PREFIX = "tcp:";
+    // limite do SOURCE: o tamanho vem do cliente e o fonte inteiro fica em memoria
+    static final int MAX_SOURCE_BYTES = 8 << 20;
+
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    private final ExecutorService workers;
+    private final ExecutorService connections;
+    private final BuildCache cache;
+    private final boolean optimize;
+    // o JackCompiler nao e thread-safe: cada worker reaproveita o seu
+    private final ThreadLocal<JackCompiler> compilers;
+
+    // tcp:<porta> e uma porta TCP em localhost; qualquer outra coisa e o caminho de um socket Unix.
+    // Um numero sozinho e recusado, para que ninguem abra uma porta TCP sem pedir
+    static SocketAddress address(String spec) {
+        if (spec == null)
+            return UnixDomainSocketAddress.of(defaultSocketDir().resolve(DEFAULT_SOCKET));
+        if (spec.startsWith(TCP_PREFIX) && spec.substring(TCP_PREFIX.length()).matches("\\d+"))
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec.substring(TCP_PREFIX.length())));
+        if (spec.matches("\\d+"))
+            throw new IllegalArgumentException("ambiguous daemon address " + spec + ": use " + TCP_PREFIX + spec + " for an (unauthenticated) TCP port");
+        return UnixDomainSocketAddress.of(spec);
+    }
+
+    // o socket padrao nao fica direto no tmpdir compartilhado, onde outro usuario poderia criar o mesmo
+    // nome antes: usa $XDG_RUNTIME_DIR, que ja e do usuario e 0700, ou <tmpdir>/jackc-<usuario>, que o
+    // daemon cria com 0700 e confere antes de usar
+    static Path defaultSocketDir() {
+        var runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty() && Path.of(runtime).isAbsolute())
+            return Path.of(runtime);
+        return Path.of(System.getProperty("java.io.tmpdir"), "jackc-" + System.getProperty("user.name"));
+    }
+
+    private static UserPrincipal currentUser(Path path) throws IOException {
+        return path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    // dono do arquivo (sem seguir links) e o usuario atual; sem suporte a dono no sistema de arquivos, true
+    static boolean ownedByCurrentUser(Path path) throws IOException {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("owner"))
+            return true;
+        return Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).equals(currentUser(path));
+    }
+
+    // cria o diretorio do socket padrao, se preciso, e recusa um que nao seja um diretorio 0700 do usuario
+    private static void ensurePrivateDir(Path dir) throws IOException {
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(dir);
+            return;
+        }
+        try {
+            Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (FileAlreadyExistsException e) {
+            // conferido abaixo
+        }
+        var attributes = Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        var permissions = new HashSet<>(attributes.permissions());
+        permissions.retainAll(PosixFilePermissions.fromString("---rwxrwx"));
+        if (!attributes.isDirectory() || !attributes.owner().equals(currentUser(dir)) || !permissions.isEmpty())
+            throw new IOException(dir + " is not a directory private to " + System.getProperty("user.name"));
+    }
+
+    static SocketChannel open(SocketAddress address) throws IOException {
+        return address instanceof UnixDomainSocketAddress
+            ? SocketChannel.open(StandardProtocolFamily.UNIX)
+            : SocketChannel.open();
+    }
+
+    CompileDaemon(SocketAddress address, int threads, BuildCache cache) throws IOException {
+        this(address, threads, cache, false);
+    }
+
+    CompileDaemon(SocketAddress address, int threads, BuildCache cache, boolean optimize) throws IOException {
+        this.cache = cache;
+        this.optimize = optimize;
+        this.compilers = ThreadLocal.withInitial(() -> new JackCompiler(optimize));
+        if (address instanceof UnixDomainSocketAddress unix) {
+            socketFile = unix.getPath().toAbsolutePath();
+            if (socketFile.getParent().equals(defaultSocketDir().toAbsolutePath()))
+                ensurePrivateDir(socketFile.getParent());
+            removeStaleSocket(unix);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                bindPrivate(server, socketFile);
+            } catch (IOException | RuntimeException e) {
+                server.close();
+                throw e;
+            }
+        } else {
+            socketFile = null;
+            server = ServerSocketChannel.open();
+            server.bind(address);
+        }
+        workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        connections = Executors.newCachedThreadPool(r -> {
+            var thread = new Thread(r, "jackc-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // o bind respeita a umask, e um chmod depois dele deixaria uma janela em que outros usuarios conectam.
+    // O socket nasce num diretorio 0700 ao lado do destino, recebe o modo rw------- e so entao e
+    // renomeado para o caminho pedido, ja fechado para todos menos o dono
+    private static void bindPrivate(ServerSocketChannel server, Path socketFile) throws IOException {
+        var posix = socketFile.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (!posix) {
+            server.bind(UnixDomainSocketAddress.of(socketFile));
+            return;
+        }
+        var dir = Files.createTempDirectory(socketFile.getParent(), ".jackc",
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        var bound = dir.resolve("s");
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socketFile);
+        } finally {
+            Files.deleteIfExists(bound);
+            Files.delete(dir);
+        }
+    }
+
+    // um socket deixado por um daemon que morreu impede o bind; um daemon vivo nao e substituido.
+    // O caminho vem da linha de comando: so um socket e apagado, nunca um arquivo, diretorio ou link
+    private static void removeStaleSocket(UnixDomainSocketAddress address) throws IOException {
+        var path = address.getPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (!attributes.isOther())
+            throw new IOException(path + " exists and is not a socket");
+        if (!ownedByCurrentUser(path))
+            throw new IOException(path + " belongs to another user");
+        var alive = false;
+        try (var probe = open(address)) {
+            alive = probe.connect(address);
+        } catch (IOException e) {
+            // ninguem escutando
+        }
+        if (alive)
+            throw new IOException("a daemon is already listening on " + address);
+        Files.deleteIfExists(path);
+    }
+
+    // o canal ainda aponta para o caminho temporario do bind; os clientes usam o caminho final
+    SocketAddress localAddress() throws IOException {
+        return socketFile != null ? UnixDomainSocketAddress.of(socketFile) : server.getLocalAddress();
+    }
+
+    // compila classes sinteticas algumas vezes para que as primeiras requisicoes ja usem codigo compilado pelo JIT
+    void warmUp(int rounds) {
+        var compiler = compilers.get();
+        var generator = new JackProgramGenerator(1).subroutines(20).statements(20);
+        for (int i = 0; i < rounds; i++)
+            compiler.compile(generator.generate("Warm" + (i % 8)));
+    }
+
+    // atende conexoes ate close() ou SHUTDOWN
+    void serve() throws IOException {
+        try {
+            while (true) {
+                var client = server.accept();
+                connections.execute(() -> handle(client));
+            }
+        } catch (ClosedChannelException e) {
+            // encerrado
+        } finally {
+            close();
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            var local = socketFile != null;
+            var in = new BufferedInputStream(Channels.newInputStream(channel));
+            var out = Channels.newOutputStream(channel);
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.equals("PING")) {
+                    reply(out, true, 0, "");
+                } else if (line.equals("SHUTDOWN") && local) {
+                    reply(out, true, 0, "");
+                    close();
+                    return;
+                } else if (line.startsWith("COMPILE ") && local) {
+                    reply(out, compileFile(new File(line.substring(8))));
+                } else if (line.startsWith("SOURCE ")) {
+                    int length = Integer.parseInt(line.substring(7));
+                    if (length < 0 || length > MAX_SOURCE_BYTES) {
+                        // o fonte nao e lido, entao a conexao nao pode continuar
+                        reply(out, false, 0, "Error: source larger than " + MAX_SOURCE_BYTES + " bytes\n");
+                        return;
+                    }
+                    var source = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+                    reply(out, onWorker(() -> compileSource(source)));
+                } else if (line.equals("SHUTDOWN") || line.startsWith("COMPILE ")) {
+                    reply(out, false, 0, "Error: " + line.split(" ")[0] + " is only accepted on the Unix socket\n");
+                } else {
+                    reply(out, false, 0, "Error: unknown request\n");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // a conexao caiu ou a requisicao veio malformada; o daemon continua atendendo as outras
+        }
+    }
+
+    // a thread da conexao espera a compilacao no pool; as threads do pool nunca ficam presas a um cliente
+    private DaemonClient.Reply onWorker(Callable<DaemonClient.Reply> task) throws IOException {
+        try {
+            return workers.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("daemon closing");
+        } catch (RejectedExecutionException e) {
+            throw new IOException("daemon closing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io)
+                throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private DaemonClient.Reply compileSource(String source) {
+        long start = System.nanoTime();
+        var result = compilers.get().compile(source);
+        long nanos = System.nanoTime() - start;
+        return new DaemonClient.Reply(result.success(), nanos, result.success() ? result.vm() : diagnostics(result));
+    }
+
+    private DaemonClient.Reply compileFile(File file) throws IOException {
+        if (!file.isAbsolute() || !file.isFile() || !file.getName().endsWith(".jack"))
+            return new DaemonClient.Reply(false, 0, "Error: not an absolute path to a .jack file: " + file + "\n");
+        return onWorker(() -> {
+            long start = System.nanoTime();
+            var result = App.compile(file, cache, optimize);
+            return new DaemonClient.Reply(result.success(), System.nanoTime() - start, result.diagnostics());
+        });
+    }
+
+    private static String diagnostics(CompilationResult result) {
+        var sb = new StringBuilder();
+        for (var d : result.diagnostics())
+            sb.append(d).append('\n');
+        return sb.toString();
+    }
+
+    private static void reply(OutputStream out, DaemonClient.Reply reply) throws IOException {
+        reply(out, reply.success(), reply.nanos(), reply.body());
+    }
+
+    static void reply(OutputStream out, boolean ok, long nanos, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        var header = (ok ? "OK " : "ERROR ") + nanos + " " + bytes.length + "\n";
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    // linha terminada em '\n', ou null no fim da conexao
+    static String readLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1)
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    // para o gancho de encerramento da JVM: fecha sem propagar erros, ja que o processo esta saindo
+    void stop() {
+        try {
+            close();
+        } catch (IOException e) {
+            // saindo de qualquer forma
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!server.isOpen()) return;
+        server.close();
+        workers.shutdown();
+        // interrompe as conexoes paradas em leitura; o canal interrompido e fechado
+        connections.shutdownNow();
+        if (socketFile != null)
+            Files.deleteIfExists(socketFile);
+    }
+
+}
@@ -0,0 +1,102 @@
+package br.ufma.ecp;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+
+// tempos por fase e contadores de uma unidade de compilacao (ou o total de varias).
+// A resolucao de simbolos e a emissao do codigo VM acontecem durante a analise sintatica
+// e por isso fazem parte da fase "parse"; a escrita em disco feita no meio dela conta em "write".
+public class CompileStats {
+
+    private static final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    final String file;
+    boolean cached;
+    long readNanos;
+    long scanNanos;
+    long parseNanos;
+    long writeNanos;
+    long tokens;
+    long vmInstructions;
+    long bytesRead;
+    long bytesWritten;
+    long allocatedBytes;
+
+    CompileStats(String file) {
+        this.file = file;
+    }
+
+    // bytes alocados pela thread corrente ate agora, ou -1 se a JVM nao oferece a medida
+    static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean mx && mx.isThreadAllocatedMemorySupported()) {
+            return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    static CompileStats total(List<CompileStats> units) {
+        var total = new CompileStats("total");
+        for (var s : units) {
+            total.readNanos += s.readNanos;
+            total.scanNanos += s.scanNanos;
+            total.parseNanos += s.parseNanos;
+            total.writeNanos += s.writeNanos;
+            total.tokens += s.tokens;
+            total.vmInstructions += s.vmInstructions;
+            total.bytesRead += s.bytesRead;
+            total.bytesWritten += s.bytesWritten;
+            total.allocatedBytes += Math.max(0, s.allocatedBytes);
+        }
+        return total;
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    public static String toText(List<CompileStats> units) {
+        var sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-24s %10s %10s %10s %10s %9s %9s %10s %10s %12s%n",
+            "file", "read ms", "scan ms", "parse ms", "write ms", "tokens", "instrs", "bytes in", "bytes out", "alloc bytes"));
+        for (var s : units)
+            s.appendText(sb);
+        total(units).appendText(sb);
+        return sb.toString();
+    }
+
+    private void appendText(StringBuilder sb) {
+        var name = file.substring(file.lastIndexOf(File.separatorChar) + 1) + (cached ? " (cached)" : "");
+        sb.append(String.format(Locale.ROOT, "%-24s %10s %10s %10s %10s %9d %9d %10d %10d %12d%n",
+            name, ms(readNanos), ms(scanNanos), ms(parseNanos), ms(writeNanos),
+            tokens, vmInstructions, bytesRead, bytesWritten, allocatedBytes));
+    }
+
+    public static String toJson(List<CompileStats> units) {
+        var sb = new StringBuilder("{\"units\":[");
+        for (int i = 0; i < units.size(); i++) {
+            if (i > 0) sb.append(',');
+            units.get(i).appendJson(sb);
+        }
+        sb.append("],\"total\":");
+        total(units).appendJson(sb);
+        return sb.append("}\n").toString();
+    }
+
+    private void appendJson(StringBuilder sb) {
+        sb.append("{\"file\":\"").append(file.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+          .append(",\"cached\":").append(cached)
+          .append(",\"readMs\":").append(ms(readNanos))
+          .append(",\"scanMs\":").append(ms(scanNanos))
+          .append(",\"parseMs\":").append(ms(parseNanos))
+          .append(",\"writeMs\":").append(ms(writeNanos))
+          .append(",\"tokens\":").append(tokens)
+          .append(",\"vmInstructions\":").append(vmInstructions)
+          .append(",\"bytesRead\":").append(bytesRead)
+          .append(",\"bytesWritten\":").append(bytesWritten)
+          .append(",\"allocatedBytes\":").append(allocatedBytes)
+          .append('}');
+    }
+
+}
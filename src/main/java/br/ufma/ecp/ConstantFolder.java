@@ -0,0 +1,57 @@
+package br.ufma.ecp;
+
+// aritmetica da plataforma Hack sobre constantes: inteiros de 16 bits em complemento de dois,
+// true = -1 e false = 0. Devolve null quando o resultado nao pode ser calculado com seguranca
+// em tempo de compilacao (divisao por zero, estouro do Math.divide ou comparacao com estouro).
+final class ConstantFolder {
+
+    private ConstantFolder() {
+    }
+
+    static Integer unary(char op, int a) {
+        switch (op) {
+            case '-': return (int) (short) -a;
+            case '~': return (int) (short) ~a;
+            default: return null;
+        }
+    }
+
+    static Integer binary(char op, int a, int b) {
+        switch (op) {
+            case '+': return (int) (short) (a + b);
+            case '-': return (int) (short) (a - b);
+            case '*': return (int) (short) (a * b);
+            case '/':
+                // o Math.divide do SO trabalha com valores absolutos, que nao existem para -32768
+                if (b == 0 || a == Short.MIN_VALUE || b == Short.MIN_VALUE) return null;
+                return (int) (short) (a / b);
+            case '&': return a & b;
+            case '|': return a | b;
+            case '=': return a == b ? -1 : 0;
+            // gt e lt costumam ser traduzidos como x - y; so dobra quando a subtracao nao estoura
+            case '<': return a - b == (short) (a - b) ? (a < b ? -1 : 0) : null;
+            case '>': return a - b == (short) (a - b) ? (a > b ? -1 : 0) : null;
+            default: return null;
+        }
+    }
+
+    // x op b == x
+    static boolean isNeutral(char op, int b) {
+        switch (op) {
+            case '+': case '-': case '|': return b == 0;
+            case '*': case '/': return b == 1;
+            case '&': return b == -1;
+            default: return false;
+        }
+    }
+
+    // x op b == b, qualquer que seja x
+    static boolean isAbsorbing(char op, int b) {
+        switch (op) {
+            case '*': case '&': return b == 0;
+            case '|': return b == -1;
+            default: return false;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package br.ufma.ecp;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// cliente do CompileDaemon; uma conexao pode enviar varias requisicoes em sequencia
+public class DaemonClient implements Closeable {
+
+    // resposta do daemon: sucesso, tempo de compilacao no daemon e o corpo (codigo VM ou diagnosticos)
+    public record Reply(boolean success, long nanos, String body) {
+    }
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private final boolean local;
+
+    private DaemonClient(SocketChannel channel, boolean local) {
+        this.channel = channel;
+        this.local = local;
+        this.in = new BufferedInputStream(Channels.newInputStream(channel));
+        this.out = Channels.newOutputStream(channel);
+    }
+
+    // devolve null quando nao ha daemon escutando no endereco. Um socket Unix de outro usuario e tratado
+    // como ausente: quem o criou receberia os caminhos e fontes e poderia forjar as respostas
+    public static DaemonClient connect(SocketAddress address) {
+        try {
+            if (address instanceof UnixDomainSocketAddress unix && !CompileDaemon.ownedByCurrentUser(unix.getPath()))
+                return null;
+            var channel = CompileDaemon.open(address);
+            try {
+                channel.connect(address);
+                return new DaemonClient(channel, address instanceof UnixDomainSocketAddress);
+            } catch (IOException e) {
+                channel.close();
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // por TCP o daemon nao grava arquivos: o fonte vai como SOURCE e o .vm e gravado aqui
+    public Reply compile(File file) throws IOException {
+        if (local)
+            return request("COMPILE " + file.getAbsolutePath() + "\n", null);
+        var reply = compile(Files.readString(file.toPath()));
+        if (!reply.success())
+            return reply;
+        var name = file.getAbsolutePath();
+        OutputFiles.write(Path.of(name.substring(0, name.lastIndexOf('.')) + ".vm"), reply.body());
+        return new Reply(true, reply.nanos(), "");
+    }
+
+    public Reply compile(CharSequence source) throws IOException {
+        var bytes = source.toString().getBytes(StandardCharsets.UTF_8);
+        return request("SOURCE " + bytes.length + "\n", bytes);
+    }
+
+    public Reply ping() throws IOException {
+        return request("PING\n", null);
+    }
+
+    public Reply shutdown() throws IOException {
+        return request("SHUTDOWN\n", null);
+    }
+
+    private Reply request(String header, byte[] body) throws IOException {
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        if (body != null)
+            out.write(body);
+        out.flush();
+
+        var line = CompileDaemon.readLine(in);
+        if (line == null)
+            throw new IOException("daemon closed the connection");
+        var parts = line.split(" ");
+        if (parts.length != 3)
+            throw new IOException("bad reply from daemon: " + line);
+        var bytes = in.readNBytes(Integer.parseInt(parts[2]));
+        return new Reply(parts[0].equals("OK"), Long.parseLong(parts[1]), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
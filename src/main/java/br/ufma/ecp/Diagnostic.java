@@ -0,0 +1,14 @@
+package br.ufma.ecp;
+
+// erro encontrado na entrada, com a posicao exata (linha e coluna comecam em 1, offset em 0);
+// quando so a linha e conhecida a coluna e 0 e o offset -1
+public record Diagnostic(int line, int column, int offset, String message) {
+
+    @Override
+    public String toString() {
+        if (column == 0)
+            return "[line " + line + "] Error: " + message;
+        return "[line " + line + ", column " + column + "] Error: " + message;
+    }
+
+}
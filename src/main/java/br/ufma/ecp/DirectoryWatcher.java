@@ -0,0 +1,74 @@
+package br.ufma.ecp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// observa os .jack de um diretorio (sem subdiretorios, como o App) e agrupa as mudancas:
+// um lote so e entregue depois de 'debounceMillis' sem novos eventos, pois editores
+// costumam gravar o mesmo arquivo varias vezes seguidas
+public class DirectoryWatcher implements Closeable {
+
+    private final Path dir;
+    private final WatchService service;
+    private final long debounceMillis;
+
+    public DirectoryWatcher(Path dir, long debounceMillis) throws IOException {
+        this.dir = dir;
+        this.debounceMillis = debounceMillis;
+        this.service = FileSystems.getDefault().newWatchService();
+        dir.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+    }
+
+    // bloqueia ate haver mudancas; devolve os arquivos alterados em ordem de nome
+    public List<File> awaitChanges() throws InterruptedException {
+        return collect(service.take());
+    }
+
+    // como awaitChanges, mas devolve uma lista vazia se nada mudar dentro do prazo
+    public List<File> awaitChanges(long timeoutMillis) throws InterruptedException {
+        var key = service.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        return key == null ? List.of() : collect(key);
+    }
+
+    private List<File> collect(WatchKey key) throws InterruptedException {
+        var changed = new LinkedHashSet<File>();
+        while (key != null) {
+            for (var event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    // eventos perdidos: recompila tudo
+                    changed.addAll(App.sources(dir.toFile()));
+                    continue;
+                }
+                var name = event.context().toString();
+                var file = dir.resolve(name).toFile();
+                if (name.endsWith(".jack") && file.isFile())
+                    changed.add(file);
+            }
+            key.reset();
+            key = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        var files = new ArrayList<>(changed);
+        files.sort(Comparator.comparing(File::getName));
+        return files;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+}
@@ -0,0 +1,72 @@
+package br.ufma.ecp;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// compilador em memoria, sem arquivos: fonte Jack na entrada, codigo VM e diagnosticos na saida.
+// Scanner, Parser, SymbolTable e VMWriter sao criados uma vez e reiniciados a cada chamada, entao
+// a mesma instancia pode compilar muitas classes seguidas; nao e thread-safe (use uma por thread).
+public class JackCompiler {
+
+    private final Scanner scanner = new Scanner(ByteBuffer.allocate(0));
+    private final VMWriter vmWriter = new VMWriter();
+    private final Parser parser = new Parser(new ScannerCursor(scanner), false, vmWriter);
+
+    // buffer reaproveitado para codificar fontes recebidos como texto
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer encoded = ByteBuffer.allocate(4096);
+
+    public JackCompiler() {
+        this(false);
+    }
+
+    public JackCompiler(boolean optimize) {
+        // os erros sao devolvidos no resultado, nao impressos
+        parser.setErrorStream(new PrintStream(OutputStream.nullOutputStream()));
+        if (optimize)
+            vmWriter.optimize();
+    }
+
+    public CompilationResult compile(CharSequence source) {
+        return compile(encode(source));
+    }
+
+    public CompilationResult compile(ByteBuffer source) {
+        scanner.reset(source);
+        var diagnostics = new ArrayList<Diagnostic>();
+        String className = null;
+        try {
+            parser.reset();
+            parser.parse();
+            className = parser.className();
+        } catch (RuntimeException e) {
+            // erros de sintaxe ja foram registrados pelo parser
+            if (e.getMessage() != null)
+                diagnostics.add(new Diagnostic(parser.line(), 0, -1, e.getMessage()));
+        }
+        // o Scanner e consumido sob demanda, entao seus erros so estao completos depois do parse
+        diagnostics.addAll(0, parser.errors());
+        diagnostics.addAll(0, scanner.diagnostics());
+        var code = vmWriter.code();
+        return new CompilationResult(className, code.toString(), diagnostics, vmWriter.instructionCount(), code.copy());
+    }
+
+    private ByteBuffer encode(CharSequence source) {
+        int needed = (int) (source.length() * encoder.maxBytesPerChar());
+        if (encoded.capacity() < needed)
+            encoded = ByteBuffer.allocate(needed);
+        encoded.clear();
+        CoderResult result = encoder.reset().encode(CharBuffer.wrap(source), encoded, true);
+        if (result.isError())
+            throw new IllegalArgumentException("invalid source text: " + result);
+        encoder.flush(encoded);
+        return encoded.flip();
+    }
+
+}
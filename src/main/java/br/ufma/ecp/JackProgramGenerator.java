@@ -0,0 +1,239 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// gera classes Jack sinteticas e validas para testes de escala; a mesma semente gera sempre o mesmo fonte.
+// Os programas servem para medir o compilador: lacos while nao tem garantia de terminar em execucao.
+public class JackProgramGenerator {
+
+    private static final String[] LOCALS = { "a", "b", "c", "d", "e" };
+    private static final String[] WORDS = { "ola", "mundo", "jack", "hack", "vm", "pilha", "teste", "nand" };
+
+    private final long seed;
+    private Random random;
+
+    private int subroutines = 10;
+    private int statements = 20;
+    private int depth = 3;
+    private double stringDensity = 0.1;
+    // pesos de let, if, while, do e atribuicao em array, nesta ordem
+    private int[] mix = { 5, 2, 1, 2, 1 };
+
+    private StringBuilder out;
+    private String className;
+    private int indent;
+
+    public JackProgramGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public JackProgramGenerator subroutines(int subroutines) {
+        this.subroutines = Math.max(1, subroutines);
+        return this;
+    }
+
+    // quantidade de comandos no nivel mais externo de cada subrotina
+    public JackProgramGenerator statements(int statements) {
+        this.statements = Math.max(1, statements);
+        return this;
+    }
+
+    // profundidade maxima de aninhamento de comandos e de expressoes
+    public JackProgramGenerator depth(int depth) {
+        this.depth = Math.max(0, depth);
+        return this;
+    }
+
+    // fracao (0 a 1) dos termos e comandos que usam strings literais
+    public JackProgramGenerator stringDensity(double stringDensity) {
+        this.stringDensity = Math.min(1, Math.max(0, stringDensity));
+        return this;
+    }
+
+    public JackProgramGenerator mix(int let, int ifs, int whiles, int dos, int arrays) {
+        this.mix = new int[] { let, ifs, whiles, dos, arrays };
+        return this;
+    }
+
+    // cada classe usa uma semente derivada do nome, para que classes diferentes nao sejam iguais
+    public String generate(String className) {
+        this.random = new Random(seed * 31 + className.hashCode());
+        this.className = className;
+        this.out = new StringBuilder();
+        this.indent = 0;
+
+        line("class " + className + " {");
+        indent++;
+        line("static int count;");
+        line("field int x, y;");
+        for (int i = 0; i < subroutines; i++) {
+            line("");
+            subroutine(i);
+        }
+        indent--;
+        line("}");
+        return out.toString();
+    }
+
+    public void write(Path dir, int classes) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < classes; i++) {
+            var name = "Gen" + i;
+            Files.writeString(dir.resolve(name + ".jack"), generate(name));
+        }
+    }
+
+    private void subroutine(int n) {
+        line("function int f" + n + "(int p, int q) {");
+        indent++;
+        line("var int a, b, c, d, e;");
+        line("var String s;");
+        line("var Array arr;");
+        line("let arr = Array.new(10);");
+        for (int i = 0; i < statements; i++)
+            statement(depth);
+        line("do arr.dispose();");
+        line("return " + expression(depth) + ";");
+        indent--;
+        line("}");
+    }
+
+    private void statement(int level) {
+        if (random.nextDouble() < stringDensity) {
+            if (random.nextBoolean())
+                line("let s = " + string() + ";");
+            else
+                line("do Output.printString(" + string() + ");");
+            return;
+        }
+
+        int kind = pick();
+        if (level == 0 && (kind == 1 || kind == 2))
+            kind = 0;
+
+        switch (kind) {
+            case 0:
+                line("let " + local() + " = " + expression(depth) + ";");
+                break;
+            case 1:
+                line("if (" + expression(depth) + ") {");
+                block(level - 1);
+                if (random.nextBoolean()) {
+                    line("} else {");
+                    block(level - 1);
+                }
+                line("}");
+                break;
+            case 2:
+                line("while (" + expression(depth) + ") {");
+                block(level - 1);
+                line("}");
+                break;
+            case 3:
+                line("do " + call(depth) + ";");
+                break;
+            default:
+                line("let arr[" + random.nextInt(10) + "] = " + expression(depth) + ";");
+                break;
+        }
+    }
+
+    private void block(int level) {
+        indent++;
+        int n = 1 + random.nextInt(3);
+        for (int i = 0; i < n; i++)
+            statement(level);
+        indent--;
+    }
+
+    private int pick() {
+        int total = 0;
+        for (int w : mix) total += w;
+        int r = random.nextInt(Math.max(1, total));
+        for (int i = 0; i < mix.length; i++) {
+            r -= mix[i];
+            if (r < 0) return i;
+        }
+        return 0;
+    }
+
+    private String expression(int level) {
+        var sb = new StringBuilder(term(level));
+        int ops = random.nextInt(3);
+        for (int i = 0; i < ops; i++) {
+            sb.append(' ').append("+-*/&|<>=".charAt(random.nextInt(9))).append(' ');
+            sb.append(term(level));
+        }
+        return sb.toString();
+    }
+
+    private String term(int level) {
+        if (random.nextDouble() < stringDensity / 4)
+            return string();
+
+        int choice = random.nextInt(level > 0 ? 9 : 4);
+        switch (choice) {
+            case 0:
+                return Integer.toString(random.nextInt(1000));
+            case 1:
+                return local();
+            case 2:
+                return random.nextBoolean() ? "p" : "q";
+            case 3:
+                return random.nextBoolean() ? "true" : "count";
+            case 4:
+                return "(" + expression(level - 1) + ")";
+            case 5:
+                return "-" + term(level - 1);
+            case 6:
+                return "~" + term(level - 1);
+            case 7:
+                return "arr[" + expression(level - 1) + "]";
+            default:
+                return call(level - 1);
+        }
+    }
+
+    private String call(int level) {
+        var target = className + ".f" + random.nextInt(subroutines);
+        return target + "(" + expression(Math.max(0, level)) + ", " + expression(Math.max(0, level)) + ")";
+    }
+
+    private String local() {
+        return LOCALS[random.nextInt(LOCALS.length)];
+    }
+
+    private String string() {
+        var sb = new StringBuilder("\"");
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.append('"').toString();
+    }
+
+    private void line(String text) {
+        if (!text.isEmpty())
+            for (int i = 0; i < indent; i++) out.append("    ");
+        out.append(text).append('\n');
+    }
+
+    // uso: JackProgramGenerator <dir> [classes] [subroutines] [statements] [depth] [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: JackProgramGenerator <dir> [classes] [subroutines] [statements] [depth] [seed]");
+            System.exit(1);
+        }
+        int classes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        var generator = new JackProgramGenerator(args.length > 5 ? Long.parseLong(args[5]) : 42)
+            .subroutines(args.length > 2 ? Integer.parseInt(args[2]) : 10)
+            .statements(args.length > 3 ? Integer.parseInt(args[3]) : 20)
+            .depth(args.length > 4 ? Integer.parseInt(args[4]) : 3);
+        generator.write(Path.of(args[0]), classes);
+    }
+
+}
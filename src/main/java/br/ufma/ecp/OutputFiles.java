@@ -0,0 +1,48 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+// saidas escritas num temporario do mesmo diretorio e movidas por cima do destino: quem le o destino
+// ve o arquivo antigo ou o novo, nunca um pela metade
+final class OutputFiles {
+
+    private OutputFiles() {
+    }
+
+    // o temporario e criado com CREATE_NEW, e nao com Files.createTempFile (que usa o modo 0600),
+    // para que o arquivo final tenha as permissoes da umask, como qualquer arquivo criado normalmente
+    static Path createTemp(Path target) throws IOException {
+        var dir = target.toAbsolutePath().getParent();
+        while (true) {
+            var name = target.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp";
+            var tmp = dir.resolve(name);
+            try {
+                Files.newByteChannel(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return tmp;
+            } catch (FileAlreadyExistsException e) {
+                // outro nome
+            }
+        }
+    }
+
+    static void replace(Path tmp, Path target) throws IOException {
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void write(Path target, CharSequence content) throws IOException {
+        var tmp = createTemp(target);
+        try {
+            Files.writeString(tmp, content);
+            replace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+}
@@ -1,32 +1,82 @@
 package br.ufma.ecp;
 
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import br.ufma.ecp.SymbolTable.*;
 import br.ufma.ecp.VMWriter.*;
+import br.ufma.ecp.jfr.SubroutineEvent;
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenCursor;
+import br.ufma.ecp.token.TokenStream;
 import br.ufma.ecp.token.TokenType;
 
 public class Parser {
 
    private static class ParseError extends RuntimeException {}
 
-    private Scanner scan;
-    private Token currentToken;
-    private Token peekToken;
-    private StringBuilder xmlOutput = new StringBuilder();
+    private TokenCursor tokens;
+    private StringBuilder xmlOutput;
     private String className;
-    private VMWriter vmWriter = new VMWriter();
+    private VMWriter vmWriter;
     private int ifLabelNum = 0 ;
     private int whileLabelNum = 0;
     private SymbolTable symTable = new SymbolTable();
+    private PrintStream err = System.err;
+    private final List<Diagnostic> errors = new ArrayList<>();
 
     public Parser(byte[] input) {
-        scan = new Scanner(input);
+        this(input, true);
+    }
+
+    // com emitXml = false a arvore sintatica em XML nao e gerada (usado pelo App, que so precisa do VM)
+    public Parser(byte[] input, boolean emitXml) {
+        this(ByteBuffer.wrap(input), emitXml);
+    }
+
+    public Parser(ByteBuffer input, boolean emitXml) {
+        this(input, emitXml, new VMWriter());
+    }
+
+    // permite gerar o codigo VM diretamente em um VMWriter ligado a um arquivo
+    Parser(ByteBuffer input, boolean emitXml, VMWriter vmWriter) {
+        this(new ScannerCursor(new Scanner(input)), emitXml, vmWriter);
+    }
+
+    // le os tokens de um TokenStream ja gerado pelo Scanner.tokenize()
+    public Parser(TokenStream tokens, boolean emitXml) {
+        this(tokens.cursor(), emitXml, new VMWriter());
+    }
+
+    Parser(TokenStream tokens, boolean emitXml, VMWriter vmWriter) {
+        this(tokens.cursor(), emitXml, vmWriter);
+    }
+
+    Parser(TokenCursor tokens, boolean emitXml, VMWriter vmWriter) {
+        this.tokens = tokens;
+        this.vmWriter = vmWriter;
+        if (emitXml)
+            xmlOutput = new StringBuilder();
+        nextToken();
+    }
+
+    // prepara o parser para uma nova classe lida do mesmo cursor (ja reposicionado no inicio)
+    void reset() {
+        if (xmlOutput != null)
+            xmlOutput.setLength(0);
+        className = null;
+        ifLabelNum = 0;
+        whileLabelNum = 0;
+        symTable.reset();
+        vmWriter.reset();
+        errors.clear();
         nextToken();
     }
 
     private void nextToken() {
-        currentToken = peekToken;
-        peekToken = scan.nextToken();
+        tokens.advance();
     }
 
 
@@ -36,70 +86,91 @@ public class Parser {
 
     // funções auxiliares
     public String XMLOutput() {
-        return xmlOutput.toString();
+        return xmlOutput == null ? "" : xmlOutput.toString();
     }
 
     private void printNonTerminal(String nterminal) {
+        if (xmlOutput == null) return;
         xmlOutput.append(String.format("<%s>\r\n", nterminal));
     }
 
 
     boolean peekTokenIs(TokenType type) {
-        return peekToken.type == type;
+        return tokens.peekType() == type;
     }
 
     boolean currentTokenIs(TokenType type) {
-        return currentToken.type == type;
+        return tokens.currentType() == type;
     }
 
     private void expectPeek(TokenType... types) {
         for (TokenType type : types) {
-            if (peekToken.type == type) {
+            if (tokens.peekType() == type) {
                 expectPeek(type);
                 return;
             }
         }
 
-       throw error(peekToken, "Expected a statement");
+       throw error("Expected a statement");
 
     }
 
     private void expectPeek(TokenType type) {
-        if (peekToken.type == type) {
+        if (tokens.peekType() == type) {
             nextToken();
-            xmlOutput.append(String.format("%s\r\n", currentToken.toString()));
+            if (xmlOutput != null) {
+                var token = new Token(tokens.currentType(), tokens.currentLexeme(), tokens.currentLine());
+                xmlOutput.append(String.format("%s\r\n", token.toString()));
+            }
         } else {
-            throw error(peekToken, "Expected "+type.name());
+            throw error("Expected "+type.name());
         }
     }
 
 
-    private static void report(int line, String where,
+    // permite que cada unidade de compilacao tenha sua propria saida de erros
+    void setErrorStream(PrintStream err) {
+        this.err = err;
+    }
+
+    private void report(int line, String where,
         String message) {
-            System.err.println(
+            err.println(
             "[line " + line + "] Error" + where + ": " + message);
+            // o parser nao conhece a coluna do token
+            errors.add(new Diagnostic(line, 0, -1, message + where));
+    }
+
+    List<Diagnostic> errors() {
+        return errors;
+    }
+
+    // linha do proximo token, usada para situar erros semanticos
+    int line() {
+        return tokens.peekLine();
     }
 
 
-    private ParseError error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+    // os erros sao sempre reportados no proximo token (lookahead)
+    private ParseError error(String message) {
+        if (tokens.peekType() == TokenType.EOF) {
+            report(tokens.peekLine(), " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(tokens.peekLine(), " at '" + tokens.peekLexeme() + "'", message);
         }
         return new ParseError();
     }
 
     void parseTerm() {
         printNonTerminal("term");
-        switch (peekToken.type) {
+        switch (tokens.peekType()) {
             case NUMBER:
                 expectPeek(TokenType.NUMBER);
-                vmWriter.writePush(Segment.CONST, Integer.parseInt(currentToken.lexeme));
+                vmWriter.writePush(Segment.CONST, Integer.parseInt(tokens.currentLexeme()));
                 break;
             case STRING:
                 expectPeek(TokenType.STRING);
-                var strValue = currentToken.lexeme;
+                var strValue = tokens.currentLexeme();
                 vmWriter.writePush(Segment.CONST, strValue.length());
                 vmWriter.writeCall("String.new", 1);
                 for (int i = 0; i < strValue.length(); i++) {
@@ -112,7 +183,7 @@ public class Parser {
             case TRUE:
                 expectPeek(TokenType.FALSE, TokenType.NULL, TokenType.TRUE);
                 vmWriter.writePush(Segment.CONST, 0);
-                if (currentToken.type == TokenType.TRUE) {
+                if (tokens.currentType() == TokenType.TRUE) {
                     vmWriter.writeArithmetic(Command.NOT);
                 }
                 break;
@@ -123,7 +194,7 @@ public class Parser {
                 case IDENT:
                 expectPeek(TokenType.IDENT);
 
-                Symbol sym = symTable.resolve(currentToken.lexeme);
+                Symbol sym = symTable.resolve(tokens.currentLexeme());
                 
                 if (peekTokenIs(TokenType.LPAREN) || peekTokenIs(TokenType.DOT)) {
                     parseSubroutineCall();
@@ -151,7 +222,7 @@ public class Parser {
             case MINUS:
             case NOT:
                 expectPeek(TokenType.MINUS, TokenType.NOT);
-                var op = currentToken.type;
+                var op = tokens.currentType();
                 parseTerm();
                 if (op == TokenType.MINUS){
                     vmWriter.writeArithmetic(Command.NEG);
@@ -160,7 +231,7 @@ public class Parser {
                 }
                 break;
             default:
-                throw error(peekToken, "term expected");
+                throw error("term expected");
         }
 
         printNonTerminal("/term");
@@ -168,11 +239,11 @@ public class Parser {
 
     void parseStatements() {
         printNonTerminal("statements");
-        while (peekToken.type == TokenType.WHILE ||
-                peekToken.type == TokenType.IF ||
-                peekToken.type == TokenType.LET ||
-                peekToken.type == TokenType.DO ||
-                peekToken.type == TokenType.RETURN) {
+        while (tokens.peekType() == TokenType.WHILE ||
+                tokens.peekType() == TokenType.IF ||
+                tokens.peekType() == TokenType.LET ||
+                tokens.peekType() == TokenType.DO ||
+                tokens.peekType() == TokenType.RETURN) {
             parseStatement();
         }
 
@@ -202,7 +273,7 @@ public class Parser {
 
 
     void parseStatement() {
-        switch (peekToken.type) {
+        switch (tokens.peekType()) {
             case LET:
                 parseLet();
                 break;
@@ -219,14 +290,14 @@ public class Parser {
                 parseDo();
                 break;
             default:
-                throw error(peekToken, "Expected a statement");
+                throw error("Expected a statement");
         }
     }
 
     void parseSubroutineCall() {
         int nArgs = 0;
         
-        var ident = currentToken.lexeme;
+        var ident = tokens.currentLexeme();
         var symbol = symTable.resolve(ident); // classe ou objeto
         var functionName = ident + ".";
 
@@ -241,11 +312,11 @@ public class Parser {
             expectPeek(TokenType.IDENT);
 
             if (symbol != null) {
-                functionName = symbol.type() + "." + currentToken.lexeme;
+                functionName = symbol.type() + "." + tokens.currentLexeme();
                 vmWriter.writePush(kind2Segment(symbol.kind()), symbol.index());
                 nArgs = 1;
             } else {
-                functionName += currentToken.lexeme;
+                functionName += tokens.currentLexeme();
             }
 
             expectPeek(TokenType.LPAREN);
@@ -258,6 +329,16 @@ public class Parser {
     static public boolean isOperator(String op) {
         return op != "" && "+-*/<>=~&|".contains(op);
    }
+    private static boolean isOperator(TokenType type) {
+        switch (type) {
+            case PLUS: case MINUS: case ASTERISK: case SLASH:
+            case LT: case GT: case EQ: case AND: case OR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public void compileOperators(TokenType type) {
 
         if (type == TokenType.ASTERISK) {
@@ -291,9 +372,9 @@ public class Parser {
     void parseExpression() {
         printNonTerminal("expression");
         parseTerm();
-        while (isOperator(peekToken.lexeme)) {
-            var ope = peekToken.type;
-            expectPeek(peekToken.type);
+        while (isOperator(tokens.peekType())) {
+            var ope = tokens.peekType();
+            expectPeek(tokens.peekType());
             parseTerm();
             compileOperators(ope);
         }
@@ -308,19 +389,19 @@ public class Parser {
         if (!peekTokenIs(TokenType.RPAREN)) // verifica se tem pelo menos uma expressao
         {
             expectPeek(TokenType.INT, TokenType.CHAR, TokenType.BOOLEAN, TokenType.IDENT);
-            String type = currentToken.lexeme;
+            String type = tokens.currentLexeme();
 
             expectPeek(TokenType.IDENT);
-            String name = currentToken.lexeme;
+            String name = tokens.currentLexeme();
             symTable.define(name, type, kind);
 
             while (peekTokenIs(TokenType.COMMA)) {
                 expectPeek(TokenType.COMMA);
                 expectPeek(TokenType.INT, TokenType.CHAR, TokenType.BOOLEAN, TokenType.IDENT);
-                type = currentToken.lexeme;
+                type = tokens.currentLexeme();
 
                 expectPeek(TokenType.IDENT);
-                name = currentToken.lexeme;
+                name = tokens.currentLexeme();
 
                 symTable.define(name, type, kind);
             }
@@ -381,7 +462,7 @@ public class Parser {
         expectPeek(TokenType.LET);
         expectPeek(TokenType.IDENT);
 
-        var symbol = symTable.resolve(currentToken.lexeme);
+        var symbol = symTable.resolve(tokens.currentLexeme());
 
         if (peekTokenIs(TokenType.LBRACKET)) {
             expectPeek(TokenType.LBRACKET);
@@ -496,17 +577,17 @@ public class Parser {
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(TokenType.INT, TokenType.CHAR, TokenType.BOOLEAN, TokenType.IDENT);
-        String type = currentToken.lexeme;
+        String type = tokens.currentLexeme();
 
         expectPeek(TokenType.IDENT);
-        String name = currentToken.lexeme;
+        String name = tokens.currentLexeme();
         symTable.define(name, type, kind);
 
         while (peekTokenIs(TokenType.COMMA)) {
             expectPeek(TokenType.COMMA);
             expectPeek(TokenType.IDENT);
 
-            name = currentToken.lexeme;
+            name = tokens.currentLexeme();
             symTable.define(name, type, kind);
 
         }
@@ -526,17 +607,17 @@ public class Parser {
 
         // 'int' | 'char' | 'boolean' | className
         expectPeek(TokenType.INT, TokenType.CHAR, TokenType.BOOLEAN, TokenType.IDENT);
-        String type = currentToken.lexeme;
+        String type = tokens.currentLexeme();
 
         expectPeek(TokenType.IDENT);
-        String name = currentToken.lexeme;
+        String name = tokens.currentLexeme();
 
         symTable.define(name, type, kind);
         while (peekTokenIs(TokenType.COMMA)) {
             expectPeek(TokenType.COMMA);
             expectPeek(TokenType.IDENT);
 
-            name = currentToken.lexeme;
+            name = tokens.currentLexeme();
             symTable.define(name, type, kind);
         }
 
@@ -545,6 +626,9 @@ public class Parser {
     }
 
     void parseSubroutineDec() {
+        var event = new SubroutineEvent();
+        event.begin();
+        int instructions = vmWriter.instructionCount();
         printNonTerminal("subroutineDec");
 
         ifLabelNum = 0;
@@ -553,7 +637,7 @@ public class Parser {
         symTable.startSubroutine();
 
         expectPeek(TokenType.CONSTRUCTOR, TokenType.FUNCTION, TokenType.METHOD);
-        var subroutineType = currentToken.type;
+        var subroutineType = tokens.currentType();
 
         if (subroutineType == TokenType.METHOD) {
             symTable.define("this", className, Kind.ARG);
@@ -563,21 +647,29 @@ public class Parser {
         expectPeek(TokenType.VOID, TokenType.INT, TokenType.CHAR, TokenType.BOOLEAN, TokenType.IDENT);
         expectPeek(TokenType.IDENT);
 
-        var functionName = className + "." + currentToken.lexeme;
+        var functionName = className + "." + tokens.currentLexeme();
 
         expectPeek(TokenType.LPAREN);
         parseParameterList();
         expectPeek(TokenType.RPAREN);
         parseSubroutineBody(functionName, subroutineType);
+        vmWriter.endSubroutine();
 
         printNonTerminal("/subroutineDec");
+
+        if (event.shouldCommit()) {
+            event.name = functionName;
+            event.vmInstructions = vmWriter.instructionCount() - instructions;
+            event.locals = symTable.varCount(Kind.VAR);
+            event.commit();
+        }
     }
 
     void parseClass() {
         printNonTerminal("class");
         expectPeek(TokenType.CLASS);
         expectPeek(TokenType.IDENT);
-        className = currentToken.lexeme;
+        className = tokens.currentLexeme();
         expectPeek(TokenType.LBRACE);
 
         while (peekTokenIs(TokenType.STATIC) || peekTokenIs(TokenType.FIELD)) {
@@ -593,6 +685,10 @@ public class Parser {
         printNonTerminal("/class");
     }
 
+    String className() {
+        return className;
+    }
+
     public String VMOutput() {
         return vmWriter.vmOutput();
     }
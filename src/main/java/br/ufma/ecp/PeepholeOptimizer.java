@@ -0,0 +1,80 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// janela deslizante sobre as instrucoes emitidas pelo VMWriter: a cada instrucao nova as regras
+// sao aplicadas ate nenhuma casar; o que sai da janela vai para a saida e nao e mais reescrito
+class PeepholeOptimizer {
+
+    private final int window;
+    private final List<PeepholeRule> rules;
+    private final Consumer<VMInstruction> output;
+    private final ArrayList<VMInstruction> pending = new ArrayList<>();
+    private int rewrites;
+
+    PeepholeOptimizer(int window, List<PeepholeRule> rules, Consumer<VMInstruction> output) {
+        this.window = window;
+        this.rules = new ArrayList<>();
+        for (var rule : rules) {
+            // um padrao maior que a janela nunca estaria inteiro nela
+            if (rule.length() <= window)
+                this.rules.add(rule);
+        }
+        this.output = output;
+    }
+
+    void add(VMInstruction instruction) {
+        pending.add(instruction);
+        // sem reescrita so o final da janela pode casar com algo novo
+        if (rewriteEndingAt(pending.size())) {
+            rewrites++;
+            while (applyRules())
+                rewrites++;
+        }
+        while (pending.size() > window)
+            output.accept(pending.remove(0));
+    }
+
+    // uma reescrita pode criar um padrao antes do final (UNREACHABLE aproxima as instrucoes vizinhas, por exemplo),
+    // entao depois dela todas as posicoes da janela sao examinadas
+    private boolean applyRules() {
+        for (int end = pending.size(); end > 0; end--) {
+            if (rewriteEndingAt(end))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean rewriteEndingAt(int end) {
+        for (var rule : rules) {
+            int n = rule.length();
+            if (n > end) continue;
+            var slice = pending.subList(end - n, end);
+            var replacement = rule.rewrite(slice);
+            if (replacement != null) {
+                slice.clear();
+                pending.addAll(end - n, replacement);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void flush() {
+        for (var instruction : pending)
+            output.accept(instruction);
+        pending.clear();
+    }
+
+    void clear() {
+        pending.clear();
+        rewrites = 0;
+    }
+
+    int rewrites() {
+        return rewrites;
+    }
+
+}
@@ -0,0 +1,72 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMInstruction.Type.*;
+
+import java.util.List;
+
+// regra do otimizador peephole: examina as ultimas length() instrucoes emitidas e devolve
+// o trecho que as substitui, ou null se o padrao nao casa. Uma regra nunca pode mudar o
+// efeito das instrucoes; rotulos so podem aparecer na ultima posicao do padrao, porque
+// um salto para um rotulo no meio do trecho entraria no codigo reescrito pela metade
+public interface PeepholeRule {
+
+    int length();
+
+    List<VMInstruction> rewrite(List<VMInstruction> window);
+
+    static PeepholeRule of(int length, java.util.function.Function<List<VMInstruction>, List<VMInstruction>> rewrite) {
+        return new PeepholeRule() {
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public List<VMInstruction> rewrite(List<VMInstruction> window) {
+                return rewrite.apply(window);
+            }
+        };
+    }
+
+    // push x; pop x
+    PeepholeRule PUSH_POP = of(2, w -> w.get(0).type() == PUSH && w.get(1).type() == POP
+        && w.get(0).arg().equals(w.get(1).arg()) && w.get(0).index() == w.get(1).index() ? List.of() : null);
+
+    // not; not e neg; neg
+    PeepholeRule DOUBLE_UNARY = of(2, w -> (w.get(0).is(ARITHMETIC, "not") && w.get(1).is(ARITHMETIC, "not"))
+        || (w.get(0).is(ARITHMETIC, "neg") && w.get(1).is(ARITHMETIC, "neg")) ? List.of() : null);
+
+    // c; not; if-goto A; goto B; label A  =>  c; if-goto B; label A
+    // O not da VM e bit a bit: ~x != 0 so equivale a x == 0 quando x e 0 ou -1, entao a regra so vale
+    // quando c e uma comparacao (eq, gt, lt) ou push constant 0. Com um int qualquer o desvio mudaria.
+    // (sem o not antes, negar o desvio so trocaria qual dos caminhos executa uma instrucao a mais)
+    PeepholeRule NEGATED_BRANCH = of(5, w -> isBoolean(w.get(0)) && w.get(1).is(ARITHMETIC, "not")
+        && w.get(2).type() == IF_GOTO && w.get(3).type() == GOTO && w.get(4).is(LABEL, w.get(2).arg())
+            ? List.of(w.get(0), VMInstruction.ifGoto(w.get(3).arg()), w.get(4)) : null);
+
+    // instrucoes cujo resultado e sempre 0 ou -1
+    private static boolean isBoolean(VMInstruction instruction) {
+        return instruction.is(ARITHMETIC, "eq") || instruction.is(ARITHMETIC, "gt") || instruction.is(ARITHMETIC, "lt")
+            || instruction.isPushConstant(0);
+    }
+
+    // goto L; label L
+    PeepholeRule JUMP_TO_NEXT = of(2, w -> w.get(0).type() == GOTO && w.get(1).is(LABEL, w.get(0).arg())
+        ? List.of(w.get(1)) : null);
+
+    // push constant 0; if-goto L nunca salta
+    PeepholeRule FALSE_BRANCH = of(2, w -> w.get(0).isPushConstant(0) && w.get(1).type() == IF_GOTO
+        ? List.of() : null);
+
+    // push constant 0; not; if-goto L sempre salta
+    PeepholeRule TRUE_BRANCH = of(3, w -> w.get(0).isPushConstant(0) && w.get(1).is(ARITHMETIC, "not")
+        && w.get(2).type() == IF_GOTO ? List.of(VMInstruction.jump(w.get(2).arg())) : null);
+
+    // depois de goto ou return so se chega a um rotulo ou a outra funcao
+    PeepholeRule UNREACHABLE = of(2, w -> (w.get(0).type() == GOTO || w.get(0).type() == RETURN)
+        && w.get(1).type() != LABEL && w.get(1).type() != FUNCTION ? List.of(w.get(0)) : null);
+
+    List<PeepholeRule> DEFAULTS = List.of(PUSH_POP, DOUBLE_UNARY, NEGATED_BRANCH, JUMP_TO_NEXT, FALSE_BRANCH,
+        TRUE_BRANCH, UNREACHABLE);
+
+}
@@ -2,22 +2,35 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
 import br.ufma.ecp.token.TokenType;
 
 public class Scanner {
 
-    private byte[] input;
+    private ByteBuffer input;
     private int current;
     private int start;
     private int line = 1;
+    private int lineStart = 0;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private int tokenStart;
+    private int tokenLength;
+    // ultimo Token de cada tipo de lexema fixo, valido enquanto a linha nao muda
+    private final Token[] fixedTokens = new Token[TokenType.values().length];
 
     private static final Map<String, TokenType> keywords;
- 
+    // bytes de cada palavra-chave, indexados pelo ordinal do TokenType
+    private static final byte[][] keywordBytes = new byte[TokenType.values().length][];
+
 
     static {
         keywords = new HashMap<>();
@@ -42,13 +55,35 @@ public class Scanner {
         keywords.put("if", TokenType.IF);
         keywords.put("else", TokenType.ELSE);
         keywords.put("return", TokenType.RETURN);
+
+        for (var entry : keywords.entrySet()) {
+            keywordBytes[entry.getValue().ordinal()] = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+        }
     }
 
     
     public Scanner (byte[] input) {
-        this.input = input;
+        this(ByteBuffer.wrap(input));
+    }
+
+    // aceita tambem um MappedByteBuffer, lendo o arquivo sem copias intermediarias
+    public Scanner (ByteBuffer input) {
+        this.input = input.slice();
+        current = 0;
+        start = 0;
+    }
+
+    // reaproveita o Scanner para outro fonte, descartando posicao, diagnosticos e tokens fixos
+    public void reset(ByteBuffer input) {
+        this.input = input.slice();
         current = 0;
         start = 0;
+        line = 1;
+        lineStart = 0;
+        tokenStart = 0;
+        tokenLength = 0;
+        diagnostics.clear();
+        Arrays.fill(fixedTokens, null);
     }
 
     private void skipWhitespace() {
@@ -56,7 +91,7 @@ public class Scanner {
         while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
 
             if (ch == '\n')
-                line++;
+                newLine();
 
             advance();
             ch = peek();
@@ -66,10 +101,13 @@ public class Scanner {
     private void skipLineComments() {
         for (char ch = peek(); ch != '\n' && ch != 0;  advance(), ch = peek())
             if (ch == '\n')
-                line++;
+                newLine();
     }
     
     private void skipBlockComments() {
+        int commentStart = current;
+        int commentLine = line;
+        int commentColumn = current - lineStart + 1;
         boolean endComment = false;
         advance();
         while (!endComment) {
@@ -77,10 +115,11 @@ public class Scanner {
             char ch = peek();
 
             if (ch == '\n')
-                line++;
+                newLine();
 
-            if ( ch == 0) { // eof, lexical error
-                System.exit(1);
+            if ( ch == 0) { // eof, erro lexico: a varredura termina no fim do arquivo
+                diagnostics.add(new Diagnostic(commentLine, commentColumn, commentStart, "Unterminated comment"));
+                return;
             }
          
             if (ch == '*') {
@@ -94,137 +133,273 @@ public class Scanner {
         }
     }
 
+    private void newLine() {
+        line++;
+        lineStart = current + 1;
+    }
+
+    private void error(int offset, String message) {
+        diagnostics.add(new Diagnostic(line, offset - lineStart + 1, offset, message));
+    }
+
+    // erros lexicos encontrados ate agora; a varredura continua depois de cada um
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
     private char peekNext () {
         int next = current + 1;
-        if ( next  < input.length) {
-            return (char)input[next];
+        if ( next  < input.limit()) {
+            return (char)input.get(next);
         } else {
             return 0;
         }
    }
 
+    // o Token guarda a linha, entao cada tipo de lexema fixo ainda aloca um Token por linha em que aparece;
+    // so as repeticoes na mesma linha (virgulas, parenteses) reaproveitam a instancia. O caminho sem
+    // nenhum Token e next()/tokenize(), usado pelo Parser
     public Token nextToken () {
+        TokenType type = scan();
+        if (TokenType.lexeme(type) == null)
+            return new Token(type, lexeme(type, tokenStart, tokenLength), line);
+
+        Token token = fixedTokens[type.ordinal()];
+        if (token == null || token.line != line) {
+            token = new Token(type, TokenType.lexeme(type), line);
+            fixedTokens[type.ordinal()] = token;
+        }
+        return token;
+    }
+
+    // leitura sem objetos Token: o tipo e devolvido e a posicao fica em tokenStart()/tokenLength()/line()
+    TokenType next () {
+        return scan();
+    }
+
+    int tokenStart () {
+        return tokenStart;
+    }
+
+    int tokenLength () {
+        return tokenLength;
+    }
+
+    int line () {
+        return line;
+    }
+
+    // varre toda a entrada para um TokenStream, sem criar um objeto Token por token
+    public TokenStream tokenize () {
+        var tokens = new TokenStream(input, input.limit() / 4 + 16);
+        TokenType type;
+        do {
+            type = scan();
+            tokens.add(type, tokenStart, tokenLength, line);
+        } while (type != EOF);
+        return tokens;
+    }
+
+    // avanca ate o fim do proximo token, registrando sua posicao em tokenStart/tokenLength
+    private TokenType scan () {
 
         skipWhitespace();
 
         start = current;
         char ch = peek();
 
+        TokenType type;
         if (Character.isDigit(ch)) {
-            return number();
+            type = number();
+        } else if (isAlpha(ch)) {
+            type = identifier();
+        } else {
+            type = symbol(ch);
+            if (type == null) return scan(); // comentario
         }
-
-        if (isAlpha(ch)) {
-            return identifier();
+        if (type != STRING) {
+            tokenStart = start;
+            tokenLength = current - start;
         }
+        return type;
+    }
 
+    private TokenType symbol (char ch) {
         switch (ch) {
             case '/':
                 if (peekNext() == '/') {
                     skipLineComments();
-                    return nextToken();
+                    return null;
                 } else if (peekNext() == '*') {
                     skipBlockComments();
-                    return nextToken();
+                    return null;
                 }
                 else {
                     advance();
-                    return new Token (TokenType.SLASH,"/", line);
+                    return TokenType.SLASH;
                 }
             case '+':
                 advance();
-                return new Token (TokenType.PLUS,"+", line);
+                return TokenType.PLUS;
             case '-':
                 advance();
-                return new Token (TokenType.MINUS,"-", line); 
+                return TokenType.MINUS;
             case '*':
                 advance();
-                return new Token (TokenType.ASTERISK,"*", line); 
+                return TokenType.ASTERISK;
             case '.':
                 advance();
-                return new Token (TokenType.DOT,".", line); 
+                return TokenType.DOT;
             case '&':
                 advance();
-                return new Token (TokenType.AND,"&", line); 
+                return TokenType.AND;
             case '|':
                 advance();
-                return new Token (TokenType.OR,"|", line); 
+                return TokenType.OR;
             case '~':
                 advance();
-                return new Token (TokenType.NOT,"~", line); 
+                return TokenType.NOT;
 
             case '>':
                 advance();
-                return new Token (TokenType.GT,">", line); 
+                return TokenType.GT;
             case '<':
                 advance();
-                return new Token (TokenType.LT,"<", line); 
+                return TokenType.LT;
             case '=':
                 advance();
-                return new Token (TokenType.EQ,"=", line); 
-        
+                return TokenType.EQ;
+
             case '(':
                 advance();
-                return new Token (TokenType.LPAREN,"(", line); 
+                return TokenType.LPAREN;
             case ')':
                 advance();
-                return new Token (TokenType.RPAREN,")", line); 
+                return TokenType.RPAREN;
             case '{':
                 advance();
-                return new Token (TokenType.LBRACE,"{", line); 
+                return TokenType.LBRACE;
             case '}':
                 advance();
-                return new Token (TokenType.RBRACE,"}", line); 
+                return TokenType.RBRACE;
             case '[':
                 advance();
-                return new Token (TokenType.LBRACKET,"[", line); 
+                return TokenType.LBRACKET;
             case ']':
                 advance();
-                return new Token (TokenType.RBRACKET,"]", line); 
+                return TokenType.RBRACKET;
             case ';':
                 advance();
-                return new Token (TokenType.SEMICOLON,";", line); 
+                return TokenType.SEMICOLON;
             case ',':
                 advance();
-                return new Token (TokenType.COMMA,",", line);
+                return TokenType.COMMA;
             case '"':
                 return string();
             case 0:
-                return new Token (EOF,"EOF", line);
+                return EOF;
             default:
+                error(current, "Unexpected character '" + ch + "'");
                 advance();
-                return new Token(ILLEGAL, Character.toString(ch), line);
+                return ILLEGAL;
         }
     }
 
-    private Token identifier() {
+    // lexema de um token lido; simbolos e palavras-chave usam o lexema canonico
+    String lexeme (TokenType type, int offset, int length) {
+        String fixed = TokenType.lexeme(type);
+        if (fixed != null) return fixed;
+        if (type == ILLEGAL) return Character.toString((char)input.get(offset));
+        return text(offset, length);
+    }
+
+    private TokenType identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String id = new String(input, start, current-start, StandardCharsets.UTF_8)  ;
-        TokenType type = keywords.get(id);
-        if (type == null) type = IDENT;
-        return new Token(type, id, line);
+        TokenType type = keyword(start, current - start);
+        return type != null ? type : IDENT;
+    }
+
+    // reconhece palavras-chave direto nos bytes da entrada: o tamanho e os primeiros
+    // caracteres escolhem o unico candidato possivel, que e entao comparado byte a byte
+    private TokenType keyword(int offset, int length) {
+        TokenType candidate = null;
+        byte first = input.get(offset);
+        switch (length) {
+            case 2:
+                if (first == 'd') candidate = DO;
+                else if (first == 'i') candidate = IF;
+                break;
+            case 3:
+                if (first == 'i') candidate = INT;
+                else if (first == 'v') candidate = VAR;
+                else if (first == 'l') candidate = LET;
+                break;
+            case 4:
+                if (first == 'c') candidate = CHAR;
+                else if (first == 'v') candidate = VOID;
+                else if (first == 'n') candidate = NULL;
+                else if (first == 'e') candidate = ELSE;
+                else if (first == 't') candidate = input.get(offset + 1) == 'r' ? TRUE : THIS;
+                break;
+            case 5:
+                if (first == 'w') candidate = WHILE;
+                else if (first == 'c') candidate = CLASS;
+                else if (first == 'f') candidate = input.get(offset + 1) == 'i' ? FIELD : FALSE;
+                break;
+            case 6:
+                if (first == 'm') candidate = METHOD;
+                else if (first == 's') candidate = STATIC;
+                else if (first == 'r') candidate = RETURN;
+                break;
+            case 7:
+                if (first == 'b') candidate = BOOLEAN;
+                break;
+            case 8:
+                if (first == 'f') candidate = FUNCTION;
+                break;
+            case 11:
+                if (first == 'c') candidate = CONSTRUCTOR;
+                break;
+        }
+        if (candidate == null) return null;
+
+        byte[] word = keywordBytes[candidate.ordinal()];
+        for (int i = 1; i < length; i++) {
+            if (input.get(offset + i) != word[i]) return null;
+        }
+        return candidate;
     }
 
-    private Token number() {
+    private TokenType number() {
         while (Character.isDigit(peek())) {
             advance();
         }
-        
-            String num = new String(input, start, current-start, StandardCharsets.UTF_8)  ;
-            return new Token(NUMBER, num, line);
+        return NUMBER;
     }
 
-    private Token string () {
+    private TokenType string () {
+        int quote = current;
         advance();
         start = current;
-        while (peek() != '"' && peek() != 0) {
+        while (peek() != '"' && peek() != '\n' && peek() != 0) {
             advance();
         }
-        String s = new String(input, start, current-start, StandardCharsets.UTF_8);
-        Token token = new Token (TokenType.STRING,s, line);
-        advance();
-        return token;
+        tokenStart = start;
+        tokenLength = current - start;
+        if (peek() == '"')
+            advance();
+        else
+            error(quote, "Unterminated string");
+        return TokenType.STRING;
+    }
+
+    private String text(int offset, int length) {
+        if (input.hasArray())
+            return new String(input.array(), input.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        input.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     private void advance()  {
@@ -246,8 +421,8 @@ public class Scanner {
     
 
     private char peek () {
-        if (current < input.length)
-           return (char)input[current];
+        if (current < input.limit())
+           return (char)input.get(current);
        return 0;
     }
 
@@ -0,0 +1,73 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.TokenCursor;
+import br.ufma.ecp.token.TokenType;
+
+// le os tokens do Scanner sob demanda, guardando apenas tipo, posicao e linha do token
+// corrente e do proximo; nenhum objeto Token e criado e so o lexema corrente e materializado
+class ScannerCursor implements TokenCursor {
+
+    private final Scanner scan;
+
+    private TokenType currentType;
+    private int currentStart;
+    private int currentLength;
+    private int currentLine;
+    private String currentLexeme;
+
+    private TokenType peekType;
+    private int peekStart;
+    private int peekLength;
+    private int peekLine;
+
+    ScannerCursor(Scanner scan) {
+        this.scan = scan;
+    }
+
+    @Override
+    public void advance() {
+        currentType = peekType;
+        currentStart = peekStart;
+        currentLength = peekLength;
+        currentLine = peekLine;
+        currentLexeme = null;
+
+        peekType = scan.next();
+        peekStart = scan.tokenStart();
+        peekLength = scan.tokenLength();
+        peekLine = scan.line();
+    }
+
+    @Override
+    public TokenType currentType() {
+        return currentType;
+    }
+
+    @Override
+    public String currentLexeme() {
+        if (currentLexeme == null)
+            currentLexeme = scan.lexeme(currentType, currentStart, currentLength);
+        return currentLexeme;
+    }
+
+    @Override
+    public int currentLine() {
+        return currentLine;
+    }
+
+    @Override
+    public TokenType peekType() {
+        return peekType;
+    }
+
+    @Override
+    public String peekLexeme() {
+        return scan.lexeme(peekType, peekStart, peekLength);
+    }
+
+    @Override
+    public int peekLine() {
+        return peekLine;
+    }
+
+}
@@ -36,6 +36,14 @@ public class SymbolTable {
 
     }
 
+    // esvazia os dois escopos, para reaproveitar a tabela em outra classe
+    public void reset() {
+        classScope.clear();
+        startSubroutine();
+        countVars.put(Kind.STATIC, 0);
+        countVars.put(Kind.FIELD, 0);
+    }
+
     private Map<String,Symbol> scope (Kind kind) {
         if (kind == Kind.STATIC || kind == Kind.FIELD){
             return classScope;
@@ -0,0 +1,241 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// representacao intermediaria do codigo VM entre o Parser (via VMWriter) e a saida: cada instrucao
+// ocupa uma posicao em vetores primitivos de opcode, segmento e operando, e os rotulos e nomes de
+// funcao ficam numa tabela de nomes internados, da qual a instrucao guarda so o indice.
+// O texto .vm so e gerado no fim, por appendTo; o resto do pipeline pode ler as instrucoes direto daqui
+public final class VMCode {
+
+    private static final VMInstruction.Type[] TYPES = VMInstruction.Type.values();
+    private static final VMWriter.Segment[] SEGMENTS = VMWriter.Segment.values();
+    private static final VMWriter.Command[] COMMANDS = VMWriter.Command.values();
+    private static final HashMap<String, VMWriter.Segment> SEGMENT_NAMES = new HashMap<>();
+    private static final HashMap<String, VMWriter.Command> COMMAND_NAMES = new HashMap<>();
+
+    static {
+        for (var segment : SEGMENTS)
+            SEGMENT_NAMES.put(segment.value, segment);
+        for (var command : COMMANDS)
+            COMMAND_NAMES.put(command.value, command);
+    }
+
+    private static final int NO_NAME = -1;
+
+    // opcode e o ordinal de VMInstruction.Type; segment guarda o segmento de push/pop ou o comando
+    // aritmetico; operand o indice, o numero de argumentos ou de locais; name o indice na tabela de nomes
+    private byte[] opcodes;
+    private byte[] segments;
+    private int[] operands;
+    private int[] names;
+    private int size;
+
+    private final ArrayList<String> nameTable = new ArrayList<>();
+    private final HashMap<String, Integer> nameIds = new HashMap<>();
+
+    public VMCode() {
+        this(256);
+    }
+
+    VMCode(int capacity) {
+        opcodes = new byte[capacity];
+        segments = new byte[capacity];
+        operands = new int[capacity];
+        names = new int[capacity];
+    }
+
+    // um texto .vm; linhas vazias e comentarios sao ignorados
+    public static VMCode parse(CharSequence source) {
+        var code = new VMCode();
+        for (var line : source.toString().split("\n")) {
+            var instruction = VMInstruction.parse(line);
+            if (instruction != null)
+                code.add(instruction);
+        }
+        return code;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public VMInstruction.Type type(int i) {
+        return TYPES[opcodes[i]];
+    }
+
+    // segmento de push/pop ou comando aritmetico, como no texto; "" nas demais instrucoes
+    public String segment(int i) {
+        switch (type(i)) {
+            case PUSH: case POP: return SEGMENTS[segments[i]].value;
+            case ARITHMETIC: return COMMANDS[segments[i]].value;
+            default: return "";
+        }
+    }
+
+    public int operand(int i) {
+        return operands[i];
+    }
+
+    // rotulo ou nome da funcao, ou null
+    public String name(int i) {
+        return names[i] == NO_NAME ? null : nameTable.get(names[i]);
+    }
+
+    // nomes distintos usados pelo codigo
+    public int nameCount() {
+        return nameTable.size();
+    }
+
+    public VMInstruction instruction(int i) {
+        var type = type(i);
+        switch (type) {
+            case PUSH: case POP: case ARITHMETIC: return new VMInstruction(type, segment(i), operands[i]);
+            case RETURN: return new VMInstruction(type, "", 0);
+            default: return new VMInstruction(type, name(i), operands[i]);
+        }
+    }
+
+    public List<VMInstruction> instructions() {
+        var list = new ArrayList<VMInstruction>(size);
+        for (int i = 0; i < size; i++)
+            list.add(instruction(i));
+        return list;
+    }
+
+    // copia independente, para guardar o resultado de um VMWriter que vai ser reutilizado
+    public VMCode copy() {
+        var copy = new VMCode(Math.max(size, 1));
+        System.arraycopy(opcodes, 0, copy.opcodes, 0, size);
+        System.arraycopy(segments, 0, copy.segments, 0, size);
+        System.arraycopy(operands, 0, copy.operands, 0, size);
+        System.arraycopy(names, 0, copy.names, 0, size);
+        copy.size = size;
+        copy.nameTable.addAll(nameTable);
+        copy.nameIds.putAll(nameIds);
+        return copy;
+    }
+
+    void clear() {
+        size = 0;
+        nameTable.clear();
+        nameIds.clear();
+    }
+
+    void push(VMWriter.Segment segment, int index) {
+        add(VMInstruction.Type.PUSH, segment.ordinal(), index, NO_NAME);
+    }
+
+    void pop(VMWriter.Segment segment, int index) {
+        add(VMInstruction.Type.POP, segment.ordinal(), index, NO_NAME);
+    }
+
+    void arithmetic(VMWriter.Command command) {
+        add(VMInstruction.Type.ARITHMETIC, command.ordinal(), 0, NO_NAME);
+    }
+
+    void label(String label) {
+        add(VMInstruction.Type.LABEL, 0, 0, intern(label));
+    }
+
+    void jump(String label) {
+        add(VMInstruction.Type.GOTO, 0, 0, intern(label));
+    }
+
+    void ifGoto(String label) {
+        add(VMInstruction.Type.IF_GOTO, 0, 0, intern(label));
+    }
+
+    void call(String name, int nArgs) {
+        add(VMInstruction.Type.CALL, 0, nArgs, intern(name));
+    }
+
+    void function(String name, int nLocals) {
+        add(VMInstruction.Type.FUNCTION, 0, nLocals, intern(name));
+    }
+
+    void ret() {
+        add(VMInstruction.Type.RETURN, 0, 0, NO_NAME);
+    }
+
+    // instrucoes que saem do peephole (ou lidas de um .vm) voltam para a forma compacta
+    void add(VMInstruction instruction) {
+        switch (instruction.type()) {
+            case PUSH: push(segment(instruction), instruction.index()); break;
+            case POP: pop(segment(instruction), instruction.index()); break;
+            case ARITHMETIC:
+                var command = COMMAND_NAMES.get(instruction.arg());
+                if (command == null)
+                    throw new IllegalArgumentException("unknown command: " + instruction);
+                arithmetic(command);
+                break;
+            case LABEL: label(instruction.arg()); break;
+            case GOTO: jump(instruction.arg()); break;
+            case IF_GOTO: ifGoto(instruction.arg()); break;
+            case CALL: call(instruction.arg(), instruction.index()); break;
+            case FUNCTION: function(instruction.arg(), instruction.index()); break;
+            case RETURN: ret(); break;
+        }
+    }
+
+    private static VMWriter.Segment segment(VMInstruction instruction) {
+        var segment = SEGMENT_NAMES.get(instruction.arg());
+        if (segment == null)
+            throw new IllegalArgumentException("unknown segment: " + instruction);
+        return segment;
+    }
+
+    private int intern(String name) {
+        var id = nameIds.get(name);
+        if (id == null) {
+            id = nameTable.size();
+            nameTable.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private void add(VMInstruction.Type type, int segment, int operand, int name) {
+        if (size == opcodes.length) {
+            int capacity = size * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        opcodes[size] = (byte) type.ordinal();
+        segments[size] = (byte) segment;
+        operands[size] = operand;
+        names[size] = name;
+        size++;
+    }
+
+    // texto .vm, no mesmo formato que o VMWriter sempre gerou
+    public void appendTo(StringBuilder out) {
+        for (int i = 0; i < size; i++) {
+            switch (TYPES[opcodes[i]]) {
+                case PUSH: out.append("push ").append(SEGMENTS[segments[i]].value).append(' ').append(operands[i]); break;
+                case POP: out.append("pop ").append(SEGMENTS[segments[i]].value).append(' ').append(operands[i]); break;
+                case ARITHMETIC: out.append(COMMANDS[segments[i]].value); break;
+                case LABEL: out.append("label ").append(nameTable.get(names[i])); break;
+                case GOTO: out.append("goto ").append(nameTable.get(names[i])); break;
+                case IF_GOTO: out.append("if-goto ").append(nameTable.get(names[i])); break;
+                case CALL: out.append("call ").append(nameTable.get(names[i])).append(' ').append(operands[i]); break;
+                case FUNCTION: out.append("function ").append(nameTable.get(names[i])).append(' ').append(operands[i]); break;
+                case RETURN: out.append("return"); break;
+            }
+            out.append('\n');
+        }
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder(size * 16);
+        appendTo(sb);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,102 @@
+package br.ufma.ecp;
+
+// uma instrucao VM ja decodificada: arg e o segmento, o comando aritmetico, o rotulo ou o nome
+// da funcao, e index o indice do segmento, o numero de argumentos ou o numero de locais
+public record VMInstruction(Type type, String arg, int index) {
+
+    public enum Type {
+        PUSH, POP, ARITHMETIC, LABEL, GOTO, IF_GOTO, CALL, FUNCTION, RETURN
+    }
+
+    public static VMInstruction push(String segment, int index) {
+        return new VMInstruction(Type.PUSH, segment, index);
+    }
+
+    public static VMInstruction pop(String segment, int index) {
+        return new VMInstruction(Type.POP, segment, index);
+    }
+
+    public static VMInstruction arithmetic(String command) {
+        return new VMInstruction(Type.ARITHMETIC, command, 0);
+    }
+
+    public static VMInstruction label(String label) {
+        return new VMInstruction(Type.LABEL, label, 0);
+    }
+
+    public static VMInstruction jump(String label) {
+        return new VMInstruction(Type.GOTO, label, 0);
+    }
+
+    public static VMInstruction ifGoto(String label) {
+        return new VMInstruction(Type.IF_GOTO, label, 0);
+    }
+
+    // le uma linha de um arquivo .vm; devolve null para linhas vazias ou so com comentario
+    public static VMInstruction parse(String line) {
+        int comment = line.indexOf("//");
+        if (comment >= 0)
+            line = line.substring(0, comment);
+        line = line.strip();
+        if (line.isEmpty())
+            return null;
+
+        var parts = line.split("\\s+");
+        try {
+            var instruction = decode(parts);
+            if (instruction != null)
+                return instruction;
+        } catch (NumberFormatException e) {
+            // indice invalido, cai no erro abaixo
+        }
+        throw new IllegalArgumentException("invalid VM instruction: " + line);
+    }
+
+    private static VMInstruction decode(String[] parts) {
+        switch (parts[0]) {
+            case "push": return parts.length == 3 ? push(parts[1], Integer.parseInt(parts[2])) : null;
+            case "pop": return parts.length == 3 ? pop(parts[1], Integer.parseInt(parts[2])) : null;
+            case "label": return parts.length == 2 ? label(parts[1]) : null;
+            case "goto": return parts.length == 2 ? jump(parts[1]) : null;
+            case "if-goto": return parts.length == 2 ? ifGoto(parts[1]) : null;
+            case "call": return parts.length == 3 ? new VMInstruction(Type.CALL, parts[1], Integer.parseInt(parts[2])) : null;
+            case "function": return parts.length == 3 ? new VMInstruction(Type.FUNCTION, parts[1], Integer.parseInt(parts[2])) : null;
+            case "return": return parts.length == 1 ? new VMInstruction(Type.RETURN, "", 0) : null;
+            case "add": case "sub": case "neg": case "eq": case "gt": case "lt": case "and": case "or": case "not":
+                return parts.length == 1 ? arithmetic(parts[0]) : null;
+            default: return null;
+        }
+    }
+
+    public boolean is(Type type, String arg) {
+        return this.type == type && this.arg.equals(arg);
+    }
+
+    public boolean isPushConstant(int value) {
+        return type == Type.PUSH && arg.equals("constant") && index == value;
+    }
+
+    // mesmo formato de linha gerado pelo VMWriter
+    void appendTo(StringBuilder out) {
+        switch (type) {
+            case PUSH: out.append("push ").append(arg).append(' ').append(index); break;
+            case POP: out.append("pop ").append(arg).append(' ').append(index); break;
+            case ARITHMETIC: out.append(arg); break;
+            case LABEL: out.append("label ").append(arg); break;
+            case GOTO: out.append("goto ").append(arg); break;
+            case IF_GOTO: out.append("if-goto ").append(arg); break;
+            case CALL: out.append("call ").append(arg).append(' ').append(index); break;
+            case FUNCTION: out.append("function ").append(arg).append(' ').append(index); break;
+            case RETURN: out.append("return"); break;
+        }
+        out.append('\n');
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        appendTo(sb);
+        return sb.substring(0, sb.length() - 1);
+    }
+
+}
@@ -1,7 +1,63 @@
 package br.ufma.ecp;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// as instrucoes vao para um VMCode; o texto .vm so e gerado em vmOutput() ou, no modo streaming,
+// quando o VMCode acumula FLUSH_INSTRUCTIONS instrucoes e e escrito no canal
 public class VMWriter {
-    private StringBuilder vmOutput = new StringBuilder();
+    private static final int ENCODE_BUFFER_BYTES = 16384;
+    private static final int FLUSH_INSTRUCTIONS = 1024;
+
+    private final VMCode code = new VMCode();
+    // texto renderizado a cada envio ao canal
+    private final StringBuilder text = new StringBuilder();
+
+    // no modo streaming o codigo e renderizado e enviado ao canal sempre que passa de FLUSH_INSTRUCTIONS
+    private WritableByteChannel channel;
+    private CharsetEncoder encoder;
+    private ByteBuffer bytes;
+
+    // metricas: instrucoes emitidas, bytes enviados ao canal e tempo gasto escrevendo
+    private int instructions;
+    private long bytesWritten;
+    private long writeNanos;
+
+    private boolean folding;
+    private final int[] held = new int[16];
+    private int heldCount;
+    private Command heldUnary;
+
+    // multiplicacao por constante pequena vira somas (a VM nao tem deslocamento)
+    private static final int MAX_REDUCED_FACTOR = 255;
+    private static final int PEEPHOLE_WINDOW = 8;
+    private boolean strengthReduction;
+    // ultima instrucao emitida, se foi um push: pode ser repetido em vez de guardar o valor em temp
+    private Segment lastPushSegment;
+    private int lastPushIndex;
+
+    private PeepholeOptimizer peephole;
+
+    public VMWriter() {
+    }
+
+    public VMWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+        this.bytes = ByteBuffer.allocate(ENCODE_BUFFER_BYTES);
+    }
+
+    public VMWriter(OutputStream out) {
+        this(Channels.newChannel(out));
+    }
 
     enum Segment {
         CONST("constant"),
@@ -29,48 +85,406 @@ public class VMWriter {
         LT,
         AND,
         OR,
-        NOT
+        NOT;
+
+        public final String value = name().toLowerCase();
     };
 
+    // no modo streaming devolve apenas o que ainda nao foi enviado ao canal
     public String vmOutput() {
-        return vmOutput.toString();
+        return code().toString();
+    }
+
+    // o codigo emitido ate aqui, inclusive o que estava retido pela dobra de constantes e pelo peephole;
+    // no modo streaming so o que ainda nao foi enviado ao canal
+    public VMCode code() {
+        release();
+        if (peephole != null)
+            peephole.flush();
+        return code;
+    }
+
+    // fim de uma subrotina: libera o que a dobra de constantes e o peephole retinham, para que
+    // instructionCount() ja conte todo o codigo dela. Nenhuma regra casa atravessando um 'function'
+    public void endSubroutine() {
+        release();
+        if (peephole != null)
+            peephole.flush();
+    }
+
+    public void flush() throws IOException {
+        release();
+        if (peephole != null)
+            peephole.flush();
+        drain();
+    }
+
+    private void drain() throws IOException {
+        if (channel == null || code.size() == 0) return;
+
+        long start = System.nanoTime();
+        text.setLength(0);
+        code.appendTo(text);
+        code.clear();
+        var chars = CharBuffer.wrap(text);
+        while (true) {
+            var result = encoder.encode(chars, bytes, true);
+            bytes.flip();
+            bytesWritten += bytes.remaining();
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            bytes.clear();
+            if (result.isUnderflow()) break;
+        }
+        encoder.reset();
+        text.setLength(0);
+        writeNanos += System.nanoTime() - start;
+    }
+
+    // descarta a saida e zera as metricas; no modo streaming o canal continua o mesmo
+    public void reset() {
+        code.clear();
+        heldCount = 0;
+        heldUnary = null;
+        lastPushSegment = null;
+        if (peephole != null)
+            peephole.clear();
+        instructions = 0;
+        bytesWritten = 0;
+        writeNanos = 0;
+    }
+
+    public int instructionCount() {
+        return instructions;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public long writeNanos() {
+        return writeNanos;
+    }
+
+    private void emitted() {
+        instructions++;
+        if (channel != null && code.size() >= FLUSH_INSTRUCTIONS) {
+            try {
+                drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // com a dobra de constantes ligada, pushes de constantes e o ultimo neg/not ficam retidos
+    // ate que a proxima instrucao diga se podem ser combinados; qualquer outra instrucao os libera
+    public void setConstantFolding(boolean folding) {
+        release();
+        this.folding = folding;
+    }
+
+    // so tem efeito com a dobra de constantes, que e quem retem o fator constante
+    public void setStrengthReduction(boolean strengthReduction) {
+        this.strengthReduction = strengthReduction;
+    }
+
+    // window e o numero de instrucoes retidas para reescrita; rules vazio desliga o peephole
+    public void setPeephole(int window, List<PeepholeRule> rules) {
+        release();
+        if (peephole != null)
+            peephole.flush();
+        peephole = rules.isEmpty() ? null : new PeepholeOptimizer(window, rules, this::render);
+    }
+
+    // reescritas feitas pelo peephole desde o ultimo reset
+    public int peepholeRewrites() {
+        return peephole == null ? 0 : peephole.rewrites();
+    }
+
+    // liga todas as otimizacoes de geracao de codigo (opcao -O do App)
+    public void optimize() {
+        setConstantFolding(true);
+        setStrengthReduction(true);
+        setPeephole(PEEPHOLE_WINDOW, PeepholeRule.DEFAULTS);
     }
 
     void writePush(Segment segment, int index) {
-        vmOutput.append(String.format("push %s %d\n", segment.value, index));
+        if (folding && segment == Segment.CONST) {
+            releaseUnary();
+            if (heldCount == held.length)
+                release();
+            held[heldCount++] = (short) index;
+            return;
+        }
+        release();
+        appendPush(segment, index);
     }
 
     void writePop(Segment segment, int index) {
-
-        vmOutput.append(String.format("pop %s %d\n", segment.value, index));
+        release();
+        appendPop(segment, index);
     }
 
     void writeArithmetic(Command command) {
-        vmOutput.append(String.format("%s\n", command.name().toLowerCase()));
+        if (folding && fold(command))
+            return;
+        release();
+        appendArithmetic(command);
     }
 
     void writeLabel(String label) {
-        vmOutput.append(String.format("label %s\n", label));
+        release();
+        appendLabel(label);
     }
 
     void writeGoto(String label) {
-        vmOutput.append(String.format("goto %s\n", label));
+        release();
+        appendGoto(label);
     }
 
     void writeIf(String label) {
-        vmOutput.append(String.format("if-goto %s\n", label));
+        release();
+        appendIf(label);
     }
 
     void writeCall(String name, int nArgs) {
-        vmOutput.append(String.format("call %s %d\n", name, nArgs));
+        if (folding && nArgs == 2 && (name.equals("Math.multiply") || name.equals("Math.divide"))
+                && foldBinary(name.equals("Math.multiply") ? '*' : '/'))
+            return;
+        release();
+        appendCall(name, nArgs);
     }
 
     void writeFunction(String name, int nLocals) {
-        vmOutput.append(String.format("function %s %d\n", name, nLocals));
+        release();
+        appendFunction(name, nLocals);
     }
 
     void writeReturn() {
-        vmOutput.append(String.format("return\n"));
+        release();
+        appendReturn();
+    }
+
+    private boolean fold(Command command) {
+        switch (command) {
+            case NEG:
+            case NOT:
+                var op = command == Command.NEG ? '-' : '~';
+                if (heldCount > 0) {
+                    held[heldCount - 1] = ConstantFolder.unary(op, held[heldCount - 1]);
+                } else if (heldUnary == command) {
+                    // --x e ~~x
+                    heldUnary = null;
+                } else {
+                    releaseUnary();
+                    heldUnary = command;
+                }
+                return true;
+            case ADD: return foldBinary('+');
+            case SUB: return foldBinary('-');
+            case AND: return foldBinary('&');
+            case OR: return foldBinary('|');
+            case EQ: return foldBinary('=');
+            case GT: return foldBinary('>');
+            case LT: return foldBinary('<');
+            default: return false;
+        }
+    }
+
+    // com as duas constantes retidas o resultado e calculado; com so a da direita aplica as identidades
+    private boolean foldBinary(char op) {
+        if (heldCount >= 2) {
+            var value = ConstantFolder.binary(op, held[heldCount - 2], held[heldCount - 1]);
+            if (value == null) return false;
+            heldCount--;
+            held[heldCount - 1] = value;
+            return true;
+        }
+        if (heldCount == 1) {
+            var b = held[0];
+            if (ConstantFolder.isNeutral(op, b)) {
+                heldCount = 0;
+                return true;
+            }
+            if (ConstantFolder.isAbsorbing(op, b)) {
+                // x ainda e avaliado (pode ter efeitos colaterais), mas e descartado
+                appendPop(Segment.TEMP, 0);
+                return true;
+            }
+            if (strengthReduction && reduce(op, b)) {
+                heldCount = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // x * c e x / -1 sem chamar o Math; x ja esta na pilha e c nao foi emitido
+    private boolean reduce(char op, int c) {
+        if ((op == '/' || op == '*') && c == -1) {
+            appendArithmetic(Command.NEG);
+            return true;
+        }
+        if (op != '*' || c == Short.MIN_VALUE || Math.abs(c) > MAX_REDUCED_FACTOR)
+            return false;
+
+        // x e relido do push que o colocou na pilha ou guardado em temp 0
+        var segment = lastPushSegment;
+        var index = lastPushIndex;
+        if (segment == null || segment == Segment.TEMP) {
+            segment = Segment.TEMP;
+            index = 0;
+            appendPop(segment, index);
+            appendPush(segment, index);
+        }
+
+        // Horner sobre os bits de |c|: acc = x; para cada bit seguinte, acc = 2 * acc (+ x)
+        int factor = Math.abs(c);
+        var first = true;
+        for (int bit = 30 - Integer.numberOfLeadingZeros(factor); bit >= 0; bit--) {
+            if (first) {
+                // acc ainda e x
+                appendPush(segment, index);
+            } else {
+                appendPop(Segment.TEMP, 1);
+                appendPush(Segment.TEMP, 1);
+                appendPush(Segment.TEMP, 1);
+            }
+            appendArithmetic(Command.ADD);
+            first = false;
+            if ((factor & (1 << bit)) != 0) {
+                appendPush(segment, index);
+                appendArithmetic(Command.ADD);
+            }
+        }
+        if (c < 0)
+            appendArithmetic(Command.NEG);
+        return true;
+    }
+
+    // emite o que estava retido, na ordem original
+    private void release() {
+        for (int i = 0; i < heldCount; i++) {
+            var value = held[i];
+            if (value >= 0) {
+                appendPush(Segment.CONST, value);
+            } else if (value == -1 || value == Short.MIN_VALUE) {
+                // true e -32768 nao tem forma positiva para neg
+                appendPush(Segment.CONST, ~value);
+                appendArithmetic(Command.NOT);
+            } else {
+                appendPush(Segment.CONST, -value);
+                appendArithmetic(Command.NEG);
+            }
+        }
+        heldCount = 0;
+        releaseUnary();
+    }
+
+    private void releaseUnary() {
+        if (heldUnary != null) {
+            appendArithmetic(heldUnary);
+            heldUnary = null;
+        }
+    }
+
+    // as instrucoes vao direto para o VMCode; com o peephole ligado passam antes pela janela do otimizador
+    private void appendPush(Segment segment, int index) {
+        if (peephole != null) {
+            peephole.add(VMInstruction.push(segment.value, index));
+        } else {
+            code.push(segment, index);
+            emitted();
+        }
+        lastPushSegment = segment;
+        lastPushIndex = index;
+    }
+
+    private void appendPop(Segment segment, int index) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(VMInstruction.pop(segment.value, index));
+            return;
+        }
+        code.pop(segment, index);
+        emitted();
+    }
+
+    private void appendArithmetic(Command command) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(VMInstruction.arithmetic(command.value));
+            return;
+        }
+        code.arithmetic(command);
+        emitted();
+    }
+
+    private void appendLabel(String label) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(VMInstruction.label(label));
+            return;
+        }
+        code.label(label);
+        emitted();
+    }
+
+    private void appendGoto(String label) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(VMInstruction.jump(label));
+            return;
+        }
+        code.jump(label);
+        emitted();
+    }
+
+    private void appendIf(String label) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(VMInstruction.ifGoto(label));
+            return;
+        }
+        code.ifGoto(label);
+        emitted();
+    }
+
+    private void appendCall(String name, int nArgs) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(new VMInstruction(VMInstruction.Type.CALL, name, nArgs));
+            return;
+        }
+        code.call(name, nArgs);
+        emitted();
+    }
+
+    private void appendFunction(String name, int nLocals) {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(new VMInstruction(VMInstruction.Type.FUNCTION, name, nLocals));
+            return;
+        }
+        code.function(name, nLocals);
+        emitted();
+    }
+
+    private void appendReturn() {
+        lastPushSegment = null;
+        if (peephole != null) {
+            peephole.add(new VMInstruction(VMInstruction.Type.RETURN, "", 0));
+            return;
+        }
+        code.ret();
+        emitted();
+    }
+
+    // instrucao que saiu da janela do peephole
+    private void render(VMInstruction instruction) {
+        code.add(instruction);
+        emitted();
     }
 
 }
@@ -0,0 +1,265 @@
+package br.ufma.ecp.hack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+// montador Hack. A primeira passada so procura rotulos e conta instrucoes, entao a tabela de
+// simbolos ja nasce com o tamanho final (o assembly do VMTranslator quase nao tem variaveis); a
+// segunda codifica cada linha e entrega a palavra a saida na hora, sem lista intermediaria
+public class HackAssembler {
+
+    public static final int VARIABLE_START = 16;
+    private static final int MAX_ADDRESS = 32767;
+
+    private static final Map<String, Integer> PREDEFINED = new HashMap<>();
+    private static final Map<String, Integer> COMP = new HashMap<>();
+    private static final String[] JUMPS = { "", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP" };
+
+    static {
+        String[] registers = { "SP", "LCL", "ARG", "THIS", "THAT" };
+        for (int i = 0; i < registers.length; i++)
+            PREDEFINED.put(registers[i], i);
+        for (int i = 0; i < 16; i++)
+            PREDEFINED.put("R" + i, i);
+        PREDEFINED.put("SCREEN", 16384);
+        PREDEFINED.put("KBD", 24576);
+
+        // bits c1..c6 da ULA; a forma com M liga o bit a
+        String[] table = {
+            "0", "101010", "1", "111111", "-1", "111010", "D", "001100", "A", "110000", "!D", "001101",
+            "!A", "110001", "-D", "001111", "-A", "110011", "D+1", "011111", "A+1", "110111", "D-1", "001110",
+            "A-1", "110010", "D+A", "000010", "D-A", "010011", "A-D", "000111", "D&A", "000000", "D|A", "010101" };
+        for (int i = 0; i < table.length; i += 2) {
+            int bits = Integer.parseInt(table[i + 1], 2);
+            COMP.put(table[i], bits);
+            if (table[i].indexOf('A') >= 0)
+                COMP.put(table[i].replace('A', 'M'), bits | 0b1000000);
+        }
+        // as operacoes comutativas tambem sao aceitas com os operandos trocados
+        for (var comp : new String[] { "D+A", "D&A", "D|A", "D+M", "D&M", "D|M" })
+            COMP.put(comp.charAt(2) + comp.substring(1, 2) + 'D', COMP.get(comp));
+    }
+
+    private final CharSequence asm;
+    private final Map<String, Integer> symbols;
+    private final int instructions;
+    private int nextVariable = VARIABLE_START;
+
+    // primeira passada
+    public HackAssembler(CharSequence asm) {
+        this.asm = asm;
+        var labels = new HashMap<String, Integer>();
+        int count = 0;
+        int line = 1;
+        for (int start = 0; start < asm.length(); line++) {
+            int end = lineEnd(start);
+            int from = skipSpaces(start, end), to = trimEnd(from, end);
+            if (from < to) {
+                if (asm.charAt(from) == '(') {
+                    if (asm.charAt(to - 1) != ')')
+                        throw error(line, "missing ) in label");
+                    var label = symbol(line, from + 1, to - 1);
+                    if (PREDEFINED.containsKey(label) || labels.put(label, count) != null)
+                        throw error(line, "label defined twice: " + label);
+                } else {
+                    count++;
+                }
+            }
+            start = end + 1;
+        }
+        this.instructions = count;
+        if (count > MAX_ADDRESS + 1)
+            throw new IllegalArgumentException("program too large: " + count + " instructions");
+
+        symbols = new HashMap<>((PREDEFINED.size() + labels.size() + 8) * 4 / 3 + 1);
+        symbols.putAll(PREDEFINED);
+        symbols.putAll(labels);
+    }
+
+    public int instructionCount() {
+        return instructions;
+    }
+
+    // endereco de um rotulo ou variavel ja montado, ou -1
+    public int address(String symbol) {
+        return symbols.getOrDefault(symbol, -1);
+    }
+
+    // imagem da ROM, uma palavra por instrucao
+    public short[] assemble() {
+        var rom = new short[instructions];
+        encode(new IntConsumer() {
+            int pc;
+
+            @Override
+            public void accept(int word) {
+                rom[pc++] = (short) word;
+            }
+        });
+        return rom;
+    }
+
+    // formato .hack: uma linha de 16 digitos binarios por instrucao
+    public void writeHack(Appendable out) throws IOException {
+        var digits = new char[17];
+        digits[16] = '\n';
+        try {
+            encode(word -> {
+                for (int bit = 0; bit < 16; bit++)
+                    digits[bit] = (word & (0x8000 >>> bit)) != 0 ? '1' : '0';
+                try {
+                    out.append(new String(digits));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // segunda passada: variaveis novas recebem enderecos a partir de 16, na ordem em que aparecem;
+    // montar de novo encontra as variaveis ja na tabela, com os mesmos enderecos
+    private void encode(IntConsumer out) {
+        int line = 1;
+        for (int start = 0; start < asm.length(); line++) {
+            int end = lineEnd(start);
+            int from = skipSpaces(start, end), to = trimEnd(from, end);
+            if (from < to && asm.charAt(from) != '(')
+                out.accept(asm.charAt(from) == '@' ? addressInstruction(line, from + 1, to) : computeInstruction(line, from, to));
+            start = end + 1;
+        }
+    }
+
+    private int addressInstruction(int line, int from, int to) {
+        if (from == to)
+            throw error(line, "missing value after @");
+        if (Character.isDigit(asm.charAt(from))) {
+            int value = 0;
+            for (int i = from; i < to; i++) {
+                char ch = asm.charAt(i);
+                if (ch < '0' || ch > '9')
+                    throw error(line, "invalid number " + asm.subSequence(from, to));
+                value = value * 10 + (ch - '0');
+                if (value > MAX_ADDRESS)
+                    throw error(line, "value out of range " + asm.subSequence(from, to));
+            }
+            return value;
+        }
+        var name = symbol(line, from, to);
+        var address = symbols.get(name);
+        if (address == null) {
+            address = nextVariable++;
+            symbols.put(name, address);
+        }
+        return address;
+    }
+
+    private int computeInstruction(int line, int from, int to) {
+        int eq = -1, semi = to;
+        for (int i = from; i < to; i++) {
+            char ch = asm.charAt(i);
+            if (ch == '=' && eq < 0 && semi == to) eq = i;
+            else if (ch == ';' && semi == to) semi = i;
+        }
+
+        int dest = 0;
+        if (eq >= 0) {
+            for (int i = from; i < eq; i++) {
+                int bit;
+                switch (asm.charAt(i)) {
+                    case 'A': bit = 4; break;
+                    case 'D': bit = 2; break;
+                    case 'M': bit = 1; break;
+                    default: throw error(line, "invalid destination " + asm.subSequence(from, eq));
+                }
+                if ((dest & bit) != 0)
+                    throw error(line, "invalid destination " + asm.subSequence(from, eq));
+                dest |= bit;
+            }
+        }
+
+        var comp = asm.subSequence(eq < 0 ? from : eq + 1, semi).toString().replace(" ", "");
+        var bits = COMP.get(comp);
+        if (bits == null)
+            throw error(line, "invalid computation " + comp);
+
+        int jump = 0;
+        if (semi < to) {
+            var mnemonic = asm.subSequence(skipSpaces(semi + 1, to), to).toString();
+            jump = 1;
+            while (jump < JUMPS.length && !JUMPS[jump].equals(mnemonic))
+                jump++;
+            if (jump == JUMPS.length)
+                throw error(line, "invalid jump " + mnemonic);
+        }
+        return 0b111 << 13 | bits << 6 | dest << 3 | jump;
+    }
+
+    private String symbol(int line, int from, int to) {
+        if (from == to)
+            throw error(line, "empty symbol");
+        for (int i = from; i < to; i++) {
+            char ch = asm.charAt(i);
+            boolean valid = Character.isLetterOrDigit(ch) || ch == '_' || ch == '.' || ch == '$' || ch == ':';
+            if (!valid || (i == from && Character.isDigit(ch)))
+                throw error(line, "invalid symbol " + asm.subSequence(from, to));
+        }
+        return asm.subSequence(from, to).toString();
+    }
+
+    private int lineEnd(int start) {
+        int end = start;
+        while (end < asm.length() && asm.charAt(end) != '\n')
+            end++;
+        return end;
+    }
+
+    private int skipSpaces(int from, int end) {
+        while (from < end && Character.isWhitespace(asm.charAt(from)))
+            from++;
+        return from;
+    }
+
+    // fim do conteudo da linha, sem comentario nem espacos finais
+    private int trimEnd(int from, int end) {
+        for (int i = from; i + 1 < end; i++) {
+            if (asm.charAt(i) == '/' && asm.charAt(i + 1) == '/') {
+                end = i;
+                break;
+            }
+        }
+        while (end > from && Character.isWhitespace(asm.charAt(end - 1)))
+            end--;
+        return end;
+    }
+
+    private static IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException("line " + line + ": " + message);
+    }
+
+    // uso: HackAssembler <file.asm>...; cada arquivo gera o .hack de mesmo nome
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: HackAssembler <file.asm>...");
+            System.exit(1);
+        }
+        for (var arg : args) {
+            var input = Path.of(arg);
+            var name = input.getFileName().toString();
+            var output = input.resolveSibling((name.endsWith(".asm") ? name.substring(0, name.length() - 4) : name) + ".hack");
+            try (var writer = Files.newBufferedWriter(output)) {
+                new HackAssembler(Files.readString(input)).writeHack(writer);
+            } catch (IllegalArgumentException e) {
+                System.err.println(arg + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+}
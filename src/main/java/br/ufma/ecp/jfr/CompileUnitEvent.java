@@ -0,0 +1,35 @@
+package br.ufma.ecp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// uma unidade de compilacao (um arquivo .jack), do inicio da leitura ate a escrita do .vm
+@Name("br.ufma.ecp.CompileUnit")
+@Label("Compile Unit")
+@Category("Jack Compiler")
+@Description("Compilation of one .jack file")
+public class CompileUnitEvent extends jdk.jfr.Event {
+
+    @Label("Class Name")
+    public String className;
+
+    @Label("File")
+    public String file;
+
+    @Label("Source Size")
+    @DataAmount
+    public long size;
+
+    @Label("VM Instructions")
+    public int vmInstructions;
+
+    @Label("Success")
+    public boolean success;
+
+    @Label("Cached")
+    public boolean cached;
+
+}
@@ -0,0 +1,26 @@
+package br.ufma.ecp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// leitura de um .jack ou escrita de um .vm pelo App
+@Name("br.ufma.ecp.FileIO")
+@Label("File I/O")
+@Category("Jack Compiler")
+@Description("Reading a source file or writing VM output")
+public class FileIOEvent extends jdk.jfr.Event {
+
+    @Label("Path")
+    public String path;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+}
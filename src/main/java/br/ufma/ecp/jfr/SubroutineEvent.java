@@ -0,0 +1,25 @@
+package br.ufma.ecp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// compilacao de uma subrotina em Parser.parseSubroutineDec
+@Name("br.ufma.ecp.Subroutine")
+@Label("Subroutine")
+@Category("Jack Compiler")
+@Description("Parsing and code generation of one subroutine")
+public class SubroutineEvent extends jdk.jfr.Event {
+
+    @Label("Name")
+    public String name;
+
+    // instrucoes que a subrotina deixou na saida, ja depois da dobra de constantes e do peephole (-O)
+    @Label("VM Instructions")
+    public int vmInstructions;
+
+    @Label("Locals")
+    public int locals;
+
+}
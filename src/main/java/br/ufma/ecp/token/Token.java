@@ -42,8 +42,4 @@ public class Token {
 
     }
     
-    public String value () {
-        return type.value;
-    }
-    
 }
@@ -0,0 +1,21 @@
+package br.ufma.ecp.token;
+
+// visao do parser sobre a sequencia de tokens: o token corrente e o proximo (lookahead)
+public interface TokenCursor {
+
+    // o corrente passa a ser o antigo proximo, e um novo token e lido
+    void advance();
+
+    TokenType currentType();
+
+    String currentLexeme();
+
+    int currentLine();
+
+    TokenType peekType();
+
+    String peekLexeme();
+
+    int peekLine();
+
+}
@@ -0,0 +1,121 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// tokens guardados em arrays primitivos paralelos sobre a entrada original;
+// os lexemas so sao criados quando pedidos
+public class TokenStream {
+
+    private static final TokenType[] types = TokenType.values();
+
+    private final ByteBuffer input;
+    private byte[] type;
+    private int[] start;
+    private int[] length;
+    private int[] line;
+    private int size;
+
+    public TokenStream(ByteBuffer input, int capacity) {
+        this.input = input;
+        capacity = Math.max(capacity, 16);
+        type = new byte[capacity];
+        start = new int[capacity];
+        length = new int[capacity];
+        line = new int[capacity];
+    }
+
+    public void add(TokenType tokenType, int tokenStart, int tokenLength, int tokenLine) {
+        if (size == type.length) {
+            int capacity = size * 2;
+            type = Arrays.copyOf(type, capacity);
+            start = Arrays.copyOf(start, capacity);
+            length = Arrays.copyOf(length, capacity);
+            line = Arrays.copyOf(line, capacity);
+        }
+        type[size] = (byte) tokenType.ordinal();
+        start[size] = tokenStart;
+        length[size] = tokenLength;
+        line[size] = tokenLine;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int i) {
+        return types[type[i]];
+    }
+
+    public int line(int i) {
+        return line[i];
+    }
+
+    public String lexeme(int i) {
+        TokenType t = type(i);
+        String fixed = TokenType.lexeme(t);
+        if (fixed != null) return fixed;
+        if (t == TokenType.ILLEGAL) return Character.toString((char) input.get(start[i]));
+
+        if (input.hasArray())
+            return new String(input.array(), input.arrayOffset() + start[i], length[i], StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length[i]];
+        input.get(start[i], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Token token(int i) {
+        return new Token(type(i), lexeme(i), line(i));
+    }
+
+    public TokenCursor cursor() {
+        return new Cursor();
+    }
+
+    private class Cursor implements TokenCursor {
+        private int current = -1;
+        private int peek = -1;
+        private String currentLexeme;
+
+        @Override
+        public void advance() {
+            current = peek;
+            currentLexeme = null;
+            if (peek < size - 1) peek++;
+        }
+
+        @Override
+        public TokenType currentType() {
+            return type(current);
+        }
+
+        @Override
+        public String currentLexeme() {
+            if (currentLexeme == null) currentLexeme = lexeme(current);
+            return currentLexeme;
+        }
+
+        @Override
+        public int currentLine() {
+            return line(current);
+        }
+
+        @Override
+        public TokenType peekType() {
+            return type(peek);
+        }
+
+        @Override
+        public String peekLexeme() {
+            return lexeme(peek);
+        }
+
+        @Override
+        public int peekLine() {
+            return line(peek);
+        }
+    }
+
+}
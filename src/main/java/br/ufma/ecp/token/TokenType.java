@@ -1,6 +1,7 @@
 package br.ufma.ecp.token;
 
 import java.util.List;
+import java.util.Locale;
 
 public enum TokenType {
 
@@ -28,6 +29,23 @@ public enum TokenType {
      EOF,
 
      ILLEGAL;
+
+    // lexema fixo de simbolos e palavras-chave, indexado pelo ordinal
+    private static final String[] lexemes = new String[values().length];
+
+    static {
+        String[] symbols = { "(", ")", "{", "}", "[", "]", ",", ";", ".", "+", "-", "*", "/", "&", "|", "~", "<", ">", "=" };
+        for (int i = 0; i < symbols.length; i++)
+            lexemes[LPAREN.ordinal() + i] = symbols[i];
+        for (int i = WHILE.ordinal(); i <= RETURN.ordinal(); i++)
+            lexemes[i] = values()[i].name().toLowerCase(Locale.ROOT);
+        lexemes[EOF.ordinal()] = "EOF";
+    }
+
+    // devolve null para tokens cujo lexema depende da entrada (numeros, strings, identificadores)
+    static public String lexeme (TokenType type) {
+        return lexemes[type.ordinal()];
+    }
     
     static public boolean isSymbol (char c) {
         String symbols = "{}()[].,;+-*/&|<>=~";
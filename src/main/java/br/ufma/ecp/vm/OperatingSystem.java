@@ -0,0 +1,203 @@
+package br.ufma.ecp.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// classes do SO do Jack implementadas em Java sobre a RAM da maquina: Math, Memory, Array,
+// String, Output e Sys. Os objetos (arrays e strings) ficam no heap da RAM como no SO original,
+// entao o codigo compilado enxerga os mesmos enderecos; uma funcao com o mesmo nome definida
+// no programa tem precedencia. Os codigos de erro seguem os do Sys.error do nand2tetris
+public class OperatingSystem {
+
+    static final int HEAP_START = 2048;
+    static final int HEAP_END = 16384;
+
+    private static final Map<String, Integer> ARITY = new HashMap<>();
+
+    static {
+        for (var f : new String[] { "Math.abs", "Math.sqrt", "Memory.peek", "Memory.alloc", "Memory.deAlloc",
+                "Array.new", "Array.dispose", "String.new", "String.dispose", "String.length", "String.eraseLastChar",
+                "String.intValue", "Output.printChar", "Output.printString", "Output.printInt", "Sys.error", "Sys.wait" })
+            ARITY.put(f, 1);
+        for (var f : new String[] { "Math.multiply", "Math.divide", "Math.min", "Math.max", "Memory.poke",
+                "String.charAt", "String.appendChar", "String.setInt", "Output.moveCursor" })
+            ARITY.put(f, 2);
+        ARITY.put("String.setCharAt", 3);
+        for (var f : new String[] { "String.backSpace", "String.doubleQuote", "String.newLine", "Output.println",
+                "Output.backSpace", "Sys.halt" })
+            ARITY.put(f, 0);
+    }
+
+    // Sys.halt: encerra a execucao normalmente
+    static class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Halt() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final short[] ram;
+    private final StringBuilder output = new StringBuilder();
+    // blocos livres e alocados do heap: endereco -> tamanho
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+    private final Map<Integer, Integer> allocated = new HashMap<>();
+
+    public OperatingSystem(short[] ram) {
+        this.ram = ram;
+        free.put(HEAP_START, HEAP_END - HEAP_START);
+    }
+
+    public static boolean defines(String name) {
+        return ARITY.containsKey(name);
+    }
+
+    public static int arity(String name) {
+        return ARITY.getOrDefault(name, -1);
+    }
+
+    // texto escrito pelo programa com Output
+    public String output() {
+        return output.toString();
+    }
+
+    public int call(String name, int[] args) {
+        switch (name) {
+            case "Math.abs": return (short) Math.abs(args[0]);
+            case "Math.multiply": return (short) (args[0] * args[1]);
+            case "Math.divide":
+                if (args[1] == 0) throw error(3);
+                return (short) (args[0] / args[1]);
+            case "Math.min": return Math.min(args[0], args[1]);
+            case "Math.max": return Math.max(args[0], args[1]);
+            case "Math.sqrt":
+                if (args[0] < 0) throw error(4);
+                return (int) Math.sqrt(args[0]);
+
+            case "Memory.peek": return ram[address(args[0])];
+            case "Memory.poke": ram[address(args[0])] = (short) args[1]; return 0;
+            case "Memory.alloc": return alloc(args[0], 5);
+            case "Memory.deAlloc": deAlloc(args[0]); return 0;
+
+            case "Array.new":
+                if (args[0] <= 0) throw error(2);
+                return alloc(args[0], 2);
+            case "Array.dispose": deAlloc(args[0]); return 0;
+
+            case "String.new":
+                if (args[0] < 0) throw error(14);
+                int s = alloc(args[0] + 2, 14);
+                ram[s] = (short) args[0];
+                ram[s + 1] = 0;
+                return s;
+            case "String.dispose": deAlloc(args[0]); return 0;
+            case "String.length": return ram[address(args[0]) + 1];
+            case "String.charAt":
+                checkIndex(args[0], args[1], 15);
+                return ram[args[0] + 2 + args[1]];
+            case "String.setCharAt":
+                checkIndex(args[0], args[1], 16);
+                ram[args[0] + 2 + args[1]] = (short) args[2];
+                return 0;
+            case "String.appendChar":
+                appendChar(args[0], args[1]);
+                return args[0];
+            case "String.eraseLastChar":
+                if (ram[address(args[0]) + 1] == 0) throw error(18);
+                ram[args[0] + 1]--;
+                return 0;
+            case "String.intValue": return intValue(args[0]);
+            case "String.setInt":
+                ram[address(args[0]) + 1] = 0;
+                for (char c : Integer.toString(args[1]).toCharArray())
+                    appendChar(args[0], c);
+                return 0;
+            case "String.backSpace": return 129;
+            case "String.doubleQuote": return 34;
+            case "String.newLine": return 128;
+
+            case "Output.printChar": printChar(args[0]); return 0;
+            case "Output.printString":
+                int length = ram[address(args[0]) + 1];
+                for (int i = 0; i < length; i++)
+                    printChar(ram[args[0] + 2 + i]);
+                return 0;
+            case "Output.printInt": output.append(args[0]); return 0;
+            case "Output.println": output.append('\n'); return 0;
+            case "Output.backSpace": printChar(129); return 0;
+            case "Output.moveCursor": return 0;
+
+            case "Sys.halt": throw new Halt();
+            case "Sys.error": throw error(args[0]);
+            case "Sys.wait": return 0;
+
+            default:
+                throw new IllegalStateException("undefined function " + name);
+        }
+    }
+
+    private int alloc(int size, int errorCode) {
+        if (size <= 0) throw error(errorCode);
+        for (var block : free.entrySet()) {
+            if (block.getValue() >= size) {
+                int address = block.getKey();
+                free.remove(address);
+                if (block.getValue() > size)
+                    free.put(address + size, block.getValue() - size);
+                allocated.put(address, size);
+                return address;
+            }
+        }
+        throw error(6);
+    }
+
+    private void deAlloc(int address) {
+        var size = allocated.remove(address);
+        if (size != null)
+            free.put(address, size);
+    }
+
+    private void appendChar(int s, int c) {
+        address(s);
+        if (ram[s + 1] >= ram[s]) throw error(17);
+        ram[s + 2 + ram[s + 1]] = (short) c;
+        ram[s + 1]++;
+    }
+
+    private int intValue(int s) {
+        int length = ram[address(s) + 1];
+        int i = 0;
+        var negative = length > 0 && ram[s + 2] == '-';
+        if (negative) i++;
+        int value = 0;
+        for (; i < length && ram[s + 2 + i] >= '0' && ram[s + 2 + i] <= '9'; i++)
+            value = value * 10 + ram[s + 2 + i] - '0';
+        return (short) (negative ? -value : value);
+    }
+
+    private void checkIndex(int s, int index, int errorCode) {
+        if (index < 0 || index >= ram[address(s) + 1]) throw error(errorCode);
+    }
+
+    private void printChar(int c) {
+        if (c == 128) {
+            output.append('\n');
+        } else if (c == 129) {
+            if (output.length() > 0) output.setLength(output.length() - 1);
+        } else {
+            output.append((char) c);
+        }
+    }
+
+    private int address(int address) {
+        if (address < 0 || address >= ram.length)
+            throw new IllegalStateException("invalid address " + address);
+        return address;
+    }
+
+    private static IllegalStateException error(int code) {
+        return new IllegalStateException("Sys.error " + code);
+    }
+
+}
@@ -0,0 +1,302 @@
+package br.ufma.ecp.vm;
+
+import br.ufma.ecp.VMInstruction;
+
+// executor rapido: o VMProgram e pre-decodificado num unico int[] de pares (opcode, operando),
+// com opcodes especializados por segmento, enderecos de temp/static/pointer ja calculados,
+// rotulos removidos e desvios e chamadas apontando direto para a posicao no vetor.
+// SP, LCL, ARG, THIS e THAT ficam em variaveis locais durante a execucao; RAM[0..4] so e
+// atualizada antes das chamadas ao SO e no fim. Nao ha perfil por funcao, so o total de operacoes
+public class VMExecutor {
+
+    private static final int PUSH_CONSTANT = 0, PUSH_LOCAL = 1, PUSH_ARGUMENT = 2, PUSH_THIS = 3, PUSH_THAT = 4,
+        PUSH_ADDRESS = 5, PUSH_THIS_POINTER = 6, PUSH_THAT_POINTER = 7,
+        POP_LOCAL = 8, POP_ARGUMENT = 9, POP_THIS = 10, POP_THAT = 11, POP_ADDRESS = 12,
+        POP_THIS_POINTER = 13, POP_THAT_POINTER = 14,
+        ADD = 15, SUB = 16, NEG = 17, EQ = 18, GT = 19, LT = 20, AND = 21, OR = 22, NOT = 23,
+        GOTO = 24, IF_GOTO = 25, CALL = 26, FUNCTION = 27, RETURN = 28;
+
+    private final VMProgram program;
+    private final int[] code;
+    // posicao de cada funcao no vetor de codigo
+    private final int[] functionPc;
+    // tabela de chamadas: destino (-1 para o SO), numero de argumentos e nome
+    private final int[] callTarget;
+    private final int[] callArgs;
+    private final String[] callName;
+
+    private final short[] ram = new short[VMInterpreter.RAM_SIZE];
+    private final OperatingSystem os = new OperatingSystem(ram);
+    // enderecos de retorno por posicao da moldura: o vetor de codigo pode passar de 16 bits
+    private final int[] returnPc = new int[OperatingSystem.HEAP_START];
+    private long steps;
+
+    public VMExecutor(VMProgram program) {
+        this.program = program;
+        int n = program.size();
+
+        // rotulos nao geram codigo: cada um aponta para a instrucao seguinte
+        var position = new int[n + 1];
+        int size = 0;
+        for (int pc = 0; pc < n; pc++) {
+            position[pc] = size;
+            if (program.code().get(pc).type() != VMInstruction.Type.LABEL)
+                size += 2;
+        }
+        position[n] = size;
+
+        code = new int[size];
+        int calls = 0;
+        for (var instruction : program.code())
+            if (instruction.type() == VMInstruction.Type.CALL) calls++;
+        callTarget = new int[calls];
+        callArgs = new int[calls];
+        callName = new String[calls];
+
+        functionPc = new int[program.functionCount()];
+        for (int id = 0; id < functionPc.length; id++)
+            functionPc[id] = position[program.functionStart(id)];
+
+        calls = 0;
+        for (int pc = 0; pc < n; pc++) {
+            var instruction = program.code().get(pc);
+            int at = position[pc];
+            switch (instruction.type()) {
+                case LABEL:
+                    continue;
+                case PUSH:
+                    encodePush(at, instruction, pc);
+                    break;
+                case POP:
+                    encodePop(at, instruction, pc);
+                    break;
+                case ARITHMETIC:
+                    code[at] = arithmetic(instruction.arg());
+                    break;
+                case GOTO:
+                    code[at] = GOTO;
+                    code[at + 1] = position[program.target(pc)];
+                    break;
+                case IF_GOTO:
+                    code[at] = IF_GOTO;
+                    code[at + 1] = position[program.target(pc)];
+                    break;
+                case CALL:
+                    int callee = program.target(pc);
+                    callTarget[calls] = callee < 0 ? -1 : functionPc[callee];
+                    callArgs[calls] = instruction.index();
+                    callName[calls] = instruction.arg();
+                    code[at] = CALL;
+                    code[at + 1] = calls++;
+                    break;
+                case FUNCTION:
+                    code[at] = FUNCTION;
+                    code[at + 1] = instruction.index();
+                    break;
+                case RETURN:
+                    code[at] = RETURN;
+                    break;
+            }
+        }
+    }
+
+    private void encodePush(int at, VMInstruction instruction, int pc) {
+        int index = instruction.index();
+        switch (instruction.arg()) {
+            case "constant": code[at] = PUSH_CONSTANT; break;
+            case "local": code[at] = PUSH_LOCAL; break;
+            case "argument": code[at] = PUSH_ARGUMENT; break;
+            case "this": code[at] = PUSH_THIS; break;
+            case "that": code[at] = PUSH_THAT; break;
+            case "pointer": code[at] = index == 0 ? PUSH_THIS_POINTER : PUSH_THAT_POINTER; break;
+            case "temp": code[at] = PUSH_ADDRESS; index += VMInterpreter.TEMP; break;
+            default: code[at] = PUSH_ADDRESS; index += program.staticBase(pc); break;
+        }
+        code[at + 1] = index;
+    }
+
+    private void encodePop(int at, VMInstruction instruction, int pc) {
+        int index = instruction.index();
+        switch (instruction.arg()) {
+            case "local": code[at] = POP_LOCAL; break;
+            case "argument": code[at] = POP_ARGUMENT; break;
+            case "this": code[at] = POP_THIS; break;
+            case "that": code[at] = POP_THAT; break;
+            case "pointer": code[at] = index == 0 ? POP_THIS_POINTER : POP_THAT_POINTER; break;
+            case "temp": code[at] = POP_ADDRESS; index += VMInterpreter.TEMP; break;
+            default: code[at] = POP_ADDRESS; index += program.staticBase(pc); break;
+        }
+        code[at + 1] = index;
+    }
+
+    private static int arithmetic(String command) {
+        switch (command) {
+            case "add": return ADD;
+            case "sub": return SUB;
+            case "neg": return NEG;
+            case "eq": return EQ;
+            case "gt": return GT;
+            case "lt": return LT;
+            case "and": return AND;
+            case "or": return OR;
+            default: return NOT;
+        }
+    }
+
+    // mesma semantica de VMInterpreter.run; devolve o valor retornado pela funcao (0 no Sys.halt)
+    public int run(String function, long maxSteps) {
+        int id = program.functionId(function);
+        if (id < 0)
+            throw new IllegalArgumentException("undefined function " + function);
+
+        final int[] code = this.code;
+        final short[] ram = this.ram;
+        int sp = VMInterpreter.STACK_START, lcl = ram[VMInterpreter.LCL], arg = ram[VMInterpreter.ARG];
+        int thisp = ram[VMInterpreter.THIS], thatp = ram[VMInterpreter.THAT];
+
+        // moldura com endereco de retorno -1, como no interpretador
+        returnPc[sp] = -1;
+        ram[sp] = -1;
+        ram[sp + 1] = (short) lcl;
+        ram[sp + 2] = (short) arg;
+        ram[sp + 3] = (short) thisp;
+        ram[sp + 4] = (short) thatp;
+        sp += 5;
+        arg = sp - 5;
+        lcl = sp;
+
+        int pc = functionPc[id];
+        long budget = maxSteps;
+        try {
+            while (true) {
+                if (budget-- == 0) {
+                    steps = maxSteps;
+                    throw new IllegalStateException("step limit of " + maxSteps + " reached");
+                }
+                int x = code[pc + 1];
+                switch (code[pc]) {
+                    case PUSH_CONSTANT: ram[sp++] = (short) x; break;
+                    case PUSH_LOCAL: ram[sp++] = ram[lcl + x]; break;
+                    case PUSH_ARGUMENT: ram[sp++] = ram[arg + x]; break;
+                    case PUSH_THIS: ram[sp++] = ram[thisp + x]; break;
+                    case PUSH_THAT: ram[sp++] = ram[thatp + x]; break;
+                    case PUSH_ADDRESS: ram[sp++] = ram[x]; break;
+                    case PUSH_THIS_POINTER: ram[sp++] = (short) thisp; break;
+                    case PUSH_THAT_POINTER: ram[sp++] = (short) thatp; break;
+                    case POP_LOCAL: ram[lcl + x] = ram[--sp]; break;
+                    case POP_ARGUMENT: ram[arg + x] = ram[--sp]; break;
+                    case POP_THIS: ram[thisp + x] = ram[--sp]; break;
+                    case POP_THAT: ram[thatp + x] = ram[--sp]; break;
+                    case POP_ADDRESS: ram[x] = ram[--sp]; break;
+                    case POP_THIS_POINTER: thisp = ram[--sp]; break;
+                    case POP_THAT_POINTER: thatp = ram[--sp]; break;
+                    case ADD: sp--; ram[sp - 1] = (short) (ram[sp - 1] + ram[sp]); break;
+                    case SUB: sp--; ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]); break;
+                    case NEG: ram[sp - 1] = (short) -ram[sp - 1]; break;
+                    case EQ: sp--; ram[sp - 1] = (short) (ram[sp - 1] == ram[sp] ? -1 : 0); break;
+                    case GT: sp--; ram[sp - 1] = (short) (ram[sp - 1] > ram[sp] ? -1 : 0); break;
+                    case LT: sp--; ram[sp - 1] = (short) (ram[sp - 1] < ram[sp] ? -1 : 0); break;
+                    case AND: sp--; ram[sp - 1] = (short) (ram[sp - 1] & ram[sp]); break;
+                    case OR: sp--; ram[sp - 1] = (short) (ram[sp - 1] | ram[sp]); break;
+                    case NOT: ram[sp - 1] = (short) ~ram[sp - 1]; break;
+                    case GOTO: pc = x; continue;
+                    case IF_GOTO:
+                        if (ram[--sp] != 0) {
+                            pc = x;
+                            continue;
+                        }
+                        break;
+                    case FUNCTION:
+                        if (sp + x >= OperatingSystem.HEAP_START)
+                            throw new IllegalStateException("stack overflow");
+                        for (int i = 0; i < x; i++)
+                            ram[sp++] = 0;
+                        break;
+                    case CALL: {
+                        int target = callTarget[x];
+                        int nArgs = callArgs[x];
+                        if (target < 0) {
+                            sync(sp, lcl, arg, thisp, thatp);
+                            sp -= nArgs;
+                            ram[sp] = (short) callOs(x, sp, nArgs);
+                            sp++;
+                            break;
+                        }
+                        if (sp + 5 >= OperatingSystem.HEAP_START)
+                            throw new IllegalStateException("stack overflow");
+                        returnPc[sp] = pc + 2;
+                        ram[sp] = (short) (pc + 2);
+                        ram[sp + 1] = (short) lcl;
+                        ram[sp + 2] = (short) arg;
+                        ram[sp + 3] = (short) thisp;
+                        ram[sp + 4] = (short) thatp;
+                        sp += 5;
+                        arg = sp - nArgs - 5;
+                        lcl = sp;
+                        pc = target;
+                        continue;
+                    }
+                    case RETURN: {
+                        int frame = lcl;
+                        int returnTo = returnPc[frame - 5];
+                        ram[arg] = ram[sp - 1];
+                        sp = arg + 1;
+                        thatp = ram[frame - 1];
+                        thisp = ram[frame - 2];
+                        arg = ram[frame - 3];
+                        lcl = ram[frame - 4];
+                        if (returnTo < 0) {
+                            // o valor sai da pilha, como no interpretador
+                            steps = maxSteps - budget;
+                            sync(--sp, lcl, arg, thisp, thatp);
+                            return ram[sp];
+                        }
+                        pc = returnTo;
+                        continue;
+                    }
+                    default:
+                        throw new IllegalStateException("bad opcode " + code[pc]);
+                }
+                pc += 2;
+            }
+        } catch (OperatingSystem.Halt e) {
+            steps = maxSteps - budget;
+            return 0;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // enderecos nao sao verificados instrucao a instrucao; a pilha so e verificada nas chamadas
+            throw new IllegalStateException("invalid address at " + pc / 2, e);
+        }
+    }
+
+    private int callOs(int call, int base, int nArgs) {
+        var name = callName[call];
+        if (OperatingSystem.arity(name) != nArgs)
+            throw new IllegalStateException("undefined function " + name + " with " + nArgs + " arguments");
+        var args = new int[nArgs];
+        for (int i = 0; i < nArgs; i++)
+            args[i] = ram[base + i];
+        return os.call(name, args);
+    }
+
+    private void sync(int sp, int lcl, int arg, int thisp, int thatp) {
+        ram[VMInterpreter.SP] = (short) sp;
+        ram[VMInterpreter.LCL] = (short) lcl;
+        ram[VMInterpreter.ARG] = (short) arg;
+        ram[VMInterpreter.THIS] = (short) thisp;
+        ram[VMInterpreter.THAT] = (short) thatp;
+    }
+
+    public short[] ram() {
+        return ram;
+    }
+
+    public String output() {
+        return os.output();
+    }
+
+    // operacoes executadas na ultima chamada de run (rotulos nao contam)
+    public long steps() {
+        return steps;
+    }
+
+}
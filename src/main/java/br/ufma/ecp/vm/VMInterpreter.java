@@ -0,0 +1,322 @@
+package br.ufma.ecp.vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import br.ufma.ecp.JackCompiler;
+import br.ufma.ecp.VMCode;
+import br.ufma.ecp.VMInstruction;
+
+// interpretador de referencia da VM do nand2tetris, instrucao por instrucao sobre o modelo
+// VMInstruction; conta as instrucoes executadas em cada funcao e as chamadas ao SO, o que permite
+// comparar a qualidade do codigo gerado (por exemplo com e sem -O) sem depender do tempo de maquina
+public class VMInterpreter {
+
+    static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4, TEMP = 5;
+    static final int STACK_START = 256;
+    static final int RAM_SIZE = 32768;
+
+    private final VMProgram program;
+    private final short[] ram = new short[RAM_SIZE];
+    private final OperatingSystem os = new OperatingSystem(ram);
+    private final long[] steps;
+    private final Map<String, Long> osCalls = new TreeMap<>();
+    // enderecos de retorno por posicao da moldura: um programa pode ter mais de 32767 instrucoes,
+    // e a RAM de 16 bits guardaria so os 16 bits baixos
+    private final int[] returnPc = new int[OperatingSystem.HEAP_START];
+
+    public VMInterpreter(VMProgram program) {
+        this.program = program;
+        this.steps = new long[program.functionCount()];
+    }
+
+    // chama a funcao sem argumentos e executa ate ela retornar ou o programa chamar Sys.halt;
+    // devolve o valor retornado (0 no halt)
+    public int run(String function, long maxSteps) {
+        int id = program.functionId(function);
+        if (id < 0)
+            throw new IllegalArgumentException("undefined function " + function);
+
+        ram[SP] = STACK_START;
+        // moldura de chamada com endereco de retorno -1: o return dela encerra a execucao
+        returnPc[ram[SP]] = -1;
+        push(-1);
+        push(ram[LCL]);
+        push(ram[ARG]);
+        push(ram[THIS]);
+        push(ram[THAT]);
+        ram[ARG] = (short) (ram[SP] - 5);
+        ram[LCL] = ram[SP];
+
+        long executed = 0;
+        int pc = program.functionStart(id);
+        try {
+            while (true) {
+                if (executed++ == maxSteps)
+                    throw new IllegalStateException("step limit of " + maxSteps + " reached in " + program.functionName(program.functionOf(pc)));
+                steps[program.functionOf(pc)]++;
+                pc = execute(pc);
+                if (pc < 0)
+                    return pop();
+            }
+        } catch (OperatingSystem.Halt e) {
+            return 0;
+        }
+    }
+
+    private int execute(int pc) {
+        var instruction = program.code().get(pc);
+        switch (instruction.type()) {
+            case PUSH:
+                push(read(instruction, pc));
+                return pc + 1;
+            case POP:
+                write(instruction, pc, pop());
+                return pc + 1;
+            case ARITHMETIC:
+                arithmetic(instruction.arg());
+                return pc + 1;
+            case LABEL:
+                return pc + 1;
+            case GOTO:
+                return program.target(pc);
+            case IF_GOTO:
+                return pop() != 0 ? program.target(pc) : pc + 1;
+            case FUNCTION:
+                for (int i = 0; i < instruction.index(); i++)
+                    push(0);
+                return pc + 1;
+            case CALL:
+                return call(instruction, pc);
+            case RETURN:
+                int frame = ram[LCL];
+                int returnAddress = returnPc[frame - 5];
+                ram[ram[ARG]] = ram[ram[SP] - 1];
+                ram[SP] = (short) (ram[ARG] + 1);
+                ram[THAT] = ram[frame - 1];
+                ram[THIS] = ram[frame - 2];
+                ram[ARG] = ram[frame - 3];
+                ram[LCL] = ram[frame - 4];
+                return returnAddress;
+            default:
+                throw new IllegalStateException("unknown instruction " + instruction);
+        }
+    }
+
+    private int call(VMInstruction instruction, int pc) {
+        int callee = program.target(pc);
+        int nArgs = instruction.index();
+        if (callee < 0) {
+            var name = instruction.arg();
+            if (OperatingSystem.arity(name) != nArgs)
+                throw new IllegalStateException("undefined function " + name + " with " + nArgs + " arguments");
+            var args = new int[nArgs];
+            for (int i = nArgs - 1; i >= 0; i--)
+                args[i] = pop();
+            osCalls.merge(name, 1L, Long::sum);
+            push(os.call(name, args));
+            return pc + 1;
+        }
+        // push verifica o estouro da pilha antes de returnPc ser indexado fora dela
+        push(pc + 1);
+        returnPc[ram[SP] - 1] = pc + 1;
+        push(ram[LCL]);
+        push(ram[ARG]);
+        push(ram[THIS]);
+        push(ram[THAT]);
+        ram[ARG] = (short) (ram[SP] - nArgs - 5);
+        ram[LCL] = ram[SP];
+        return program.functionStart(callee);
+    }
+
+    private void arithmetic(String command) {
+        switch (command) {
+            case "neg": push(-pop()); return;
+            case "not": push(~pop()); return;
+            default:
+                break;
+        }
+        int y = pop();
+        int x = pop();
+        switch (command) {
+            case "add": push(x + y); break;
+            case "sub": push(x - y); break;
+            case "and": push(x & y); break;
+            case "or": push(x | y); break;
+            case "eq": push(x == y ? -1 : 0); break;
+            case "gt": push(x > y ? -1 : 0); break;
+            case "lt": push(x < y ? -1 : 0); break;
+            default: throw new IllegalStateException("unknown command " + command);
+        }
+    }
+
+    private int read(VMInstruction instruction, int pc) {
+        if (instruction.arg().equals("constant"))
+            return instruction.index();
+        return ram[address(instruction, pc)];
+    }
+
+    private void write(VMInstruction instruction, int pc, int value) {
+        ram[address(instruction, pc)] = (short) value;
+    }
+
+    private int address(VMInstruction instruction, int pc) {
+        int index = instruction.index();
+        int address;
+        switch (instruction.arg()) {
+            case "local": address = ram[LCL] + index; break;
+            case "argument": address = ram[ARG] + index; break;
+            case "this": address = ram[THIS] + index; break;
+            case "that": address = ram[THAT] + index; break;
+            case "pointer": address = THIS + index; break;
+            case "temp": address = TEMP + index; break;
+            case "static": address = program.staticBase(pc) + index; break;
+            default: throw new IllegalStateException("unknown segment " + instruction);
+        }
+        if (address < 0 || address >= RAM_SIZE)
+            throw new IllegalStateException("invalid address " + address + " in " + instruction);
+        return address;
+    }
+
+    private void push(int value) {
+        int sp = ram[SP];
+        if (sp >= OperatingSystem.HEAP_START)
+            throw new IllegalStateException("stack overflow");
+        ram[sp] = (short) value;
+        ram[SP] = (short) (sp + 1);
+    }
+
+    private int pop() {
+        int sp = ram[SP] - 1;
+        ram[SP] = (short) sp;
+        return ram[sp];
+    }
+
+    public short[] ram() {
+        return ram;
+    }
+
+    public String output() {
+        return os.output();
+    }
+
+    public long steps() {
+        long total = 0;
+        for (long s : steps) total += s;
+        return total;
+    }
+
+    // instrucoes VM executadas por funcao, da mais cara para a mais barata
+    public Map<String, Long> profile() {
+        var ids = new ArrayList<Integer>();
+        for (int i = 0; i < steps.length; i++)
+            if (steps[i] > 0) ids.add(i);
+        ids.sort(Comparator.comparingLong((Integer i) -> -steps[i]).thenComparing(program::functionName));
+        var profile = new LinkedHashMap<String, Long>();
+        for (int i : ids)
+            profile.put(program.functionName(i), steps[i]);
+        return profile;
+    }
+
+    public Map<String, Long> osCalls() {
+        return osCalls;
+    }
+
+    // uso: VMInterpreter [-O] [--fast] [--entry <function>] [--max-steps <n>] <file.jack | file.vm | directory>...
+    // compila os .jack em memoria, executa e mostra a saida do programa e o perfil de execucao;
+    // com --fast usa o VMExecutor, que so informa o total de operacoes
+    public static void main(String[] args) throws IOException {
+        var optimize = false;
+        var fast = false;
+        String entry = null;
+        long maxSteps = 100_000_000L;
+        var inputs = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-O")) optimize = true;
+            else if (args[i].equals("--fast")) fast = true;
+            else if (args[i].equals("--entry") && i + 1 < args.length) entry = args[++i];
+            else if (args[i].equals("--max-steps") && i + 1 < args.length) maxSteps = Long.parseLong(args[++i]);
+            else inputs.add(new File(args[i]));
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("usage: VMInterpreter [-O] [--fast] [--entry <function>] [--max-steps <n>] <file.jack | file.vm | directory>...");
+            System.exit(1);
+        }
+
+        var program = VMProgram.link(sources(inputs, optimize));
+        if (entry == null)
+            entry = program.functionId("Sys.init") >= 0 ? "Sys.init" : "Main.main";
+
+        if (fast) {
+            var executor = new VMExecutor(program);
+            long start = System.nanoTime();
+            int result = executor.run(entry, maxSteps);
+            long nanos = System.nanoTime() - start;
+            System.out.print(executor.output());
+            if (!executor.output().isEmpty() && !executor.output().endsWith("\n")) System.out.println();
+            System.out.println(entry + " returned " + result);
+            System.out.println(String.format(Locale.ROOT, "%d VM operations in %.3f ms (%.1f M ops/s)",
+                executor.steps(), nanos / 1e6, executor.steps() * 1e3 / Math.max(1, nanos)));
+            return;
+        }
+
+        var vm = new VMInterpreter(program);
+        long start = System.nanoTime();
+        int result = vm.run(entry, maxSteps);
+        long nanos = System.nanoTime() - start;
+
+        System.out.print(vm.output());
+        if (!vm.output().isEmpty() && !vm.output().endsWith("\n")) System.out.println();
+        System.out.println(entry + " returned " + result);
+        System.out.println(String.format(Locale.ROOT, "%d VM instructions in %.3f ms", vm.steps(), nanos / 1e6));
+        for (var e : vm.profile().entrySet())
+            System.out.println(String.format(Locale.ROOT, "%12d  %s", e.getValue(), e.getKey()));
+        for (var e : vm.osCalls().entrySet())
+            System.out.println(String.format(Locale.ROOT, "%12d  %s (OS calls)", e.getValue(), e.getKey()));
+    }
+
+    // os .jack sao compilados em memoria e entram como VMCode, sem passar por texto
+    static List<VMCode> sources(List<File> inputs, boolean optimize) throws IOException {
+        var compiler = new JackCompiler(optimize);
+        var sources = new ArrayList<VMCode>();
+        // um .vm com o mesmo nome de um .jack do diretorio e saida antiga do App: vale o .jack
+        var files = new TreeMap<String, File>();
+        for (var input : inputs) {
+            if (input.isDirectory()) {
+                var children = input.listFiles();
+                if (children != null) {
+                    for (var child : children) {
+                        var name = child.getName();
+                        if (name.endsWith(".jack"))
+                            files.put(input.getPath() + "/" + name.substring(0, name.length() - 5), child);
+                        else if (name.endsWith(".vm"))
+                            files.putIfAbsent(input.getPath() + "/" + name.substring(0, name.length() - 3), child);
+                    }
+                }
+            } else {
+                files.put(input.getPath(), input);
+            }
+        }
+        for (var file : files.values()) {
+            var text = Files.readString(file.toPath());
+            if (file.getName().endsWith(".jack")) {
+                var result = compiler.compile(text);
+                if (!result.success())
+                    throw new IllegalArgumentException(file + ": " + result.diagnostics().get(0));
+                sources.add(result.code());
+            } else {
+                sources.add(VMCode.parse(text));
+            }
+        }
+        return sources;
+    }
+
+}
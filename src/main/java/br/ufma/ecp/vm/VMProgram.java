@@ -0,0 +1,194 @@
+package br.ufma.ecp.vm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.VMCode;
+import br.ufma.ecp.VMInstruction;
+
+// programa VM ligado: as instrucoes de todas as classes em sequencia, com os rotulos (que valem
+// dentro da funcao), as chamadas e o segmento static de cada classe ja resolvidos
+public class VMProgram {
+
+    static final int STATIC_START = 16;
+    static final int STATIC_END = 256;
+
+    private final List<VMInstruction> code;
+    private final List<String> functionNames = new ArrayList<>();
+    private final Map<String, Integer> functionIds = new HashMap<>();
+    private final List<Integer> functionStarts = new ArrayList<>();
+    private final int[] functionOf;
+    private final int[] target;
+    private final int[] staticBase;
+
+    public VMProgram(List<VMInstruction> code) {
+        this.code = List.copyOf(code);
+        int n = this.code.size();
+        functionOf = new int[n];
+        target = new int[n];
+        staticBase = new int[n];
+
+        // primeira passada: funcoes, rotulos e tamanho do segmento static de cada classe
+        var labels = new HashMap<String, Integer>();
+        var statics = new LinkedHashMap<String, Integer>();
+        int current = -1;
+        for (int pc = 0; pc < n; pc++) {
+            var instruction = this.code.get(pc);
+            switch (instruction.type()) {
+                case FUNCTION:
+                    if (functionIds.containsKey(instruction.arg()))
+                        throw new IllegalArgumentException("function defined twice: " + instruction.arg());
+                    current = functionNames.size();
+                    functionIds.put(instruction.arg(), current);
+                    functionNames.add(instruction.arg());
+                    functionStarts.add(pc);
+                    statics.putIfAbsent(className(instruction.arg()), 0);
+                    break;
+                case LABEL:
+                    requireFunction(current, instruction);
+                    labels.put(functionNames.get(current) + "$" + instruction.arg(), pc);
+                    break;
+                case PUSH:
+                case POP:
+                    requireFunction(current, instruction);
+                    checkSegment(instruction);
+                    if (instruction.arg().equals("static"))
+                        statics.merge(className(functionNames.get(current)), instruction.index() + 1, Math::max);
+                    break;
+                default:
+                    requireFunction(current, instruction);
+            }
+            functionOf[pc] = current;
+        }
+
+        var bases = new HashMap<String, Integer>();
+        int next = STATIC_START;
+        for (var entry : statics.entrySet()) {
+            bases.put(entry.getKey(), next);
+            next += entry.getValue();
+        }
+        if (next > STATIC_END)
+            throw new IllegalArgumentException("static segment overflow: " + (next - STATIC_START) + " variables");
+
+        // segunda passada: destinos dos desvios e das chamadas (-1 e uma funcao do SO)
+        for (int pc = 0; pc < n; pc++) {
+            var instruction = this.code.get(pc);
+            var function = functionNames.get(functionOf[pc]);
+            switch (instruction.type()) {
+                case GOTO:
+                case IF_GOTO:
+                    var label = labels.get(function + "$" + instruction.arg());
+                    if (label == null)
+                        throw new IllegalArgumentException("undefined label " + instruction.arg() + " in " + function);
+                    target[pc] = label;
+                    break;
+                case CALL:
+                    target[pc] = functionIds.getOrDefault(instruction.arg(), -1);
+                    break;
+                case PUSH:
+                case POP:
+                    staticBase[pc] = bases.get(className(function));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // um texto por arquivo .vm
+    public static VMProgram parse(List<String> sources) {
+        var units = new ArrayList<VMCode>();
+        for (var source : sources)
+            units.add(VMCode.parse(source));
+        return link(units);
+    }
+
+    // um VMCode por classe, direto do compilador, sem passar por texto
+    public static VMProgram link(List<VMCode> units) {
+        var code = new ArrayList<VMInstruction>();
+        for (var unit : units)
+            for (int i = 0; i < unit.size(); i++)
+                code.add(unit.instruction(i));
+        return new VMProgram(code);
+    }
+
+    public static VMProgram load(List<Path> files) throws IOException {
+        var sources = new ArrayList<String>();
+        for (var file : files)
+            sources.add(Files.readString(file));
+        return parse(sources);
+    }
+
+    private static String className(String function) {
+        int dot = function.indexOf('.');
+        return dot < 0 ? function : function.substring(0, dot);
+    }
+
+    private static void requireFunction(int current, VMInstruction instruction) {
+        if (current < 0)
+            throw new IllegalArgumentException("instruction outside of a function: " + instruction);
+    }
+
+    private static void checkSegment(VMInstruction instruction) {
+        switch (instruction.arg()) {
+            case "constant":
+                if (instruction.type() == VMInstruction.Type.POP)
+                    throw new IllegalArgumentException("cannot pop to constant");
+                break;
+            case "local": case "argument": case "this": case "that": case "static":
+                break;
+            case "pointer":
+                if (instruction.index() > 1) throw new IllegalArgumentException("invalid pointer index: " + instruction);
+                break;
+            case "temp":
+                if (instruction.index() > 7) throw new IllegalArgumentException("invalid temp index: " + instruction);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown segment: " + instruction);
+        }
+    }
+
+    public List<VMInstruction> code() {
+        return code;
+    }
+
+    public int size() {
+        return code.size();
+    }
+
+    public int functionCount() {
+        return functionNames.size();
+    }
+
+    public String functionName(int id) {
+        return functionNames.get(id);
+    }
+
+    // -1 quando a funcao nao esta no programa
+    public int functionId(String name) {
+        return functionIds.getOrDefault(name, -1);
+    }
+
+    int functionStart(int id) {
+        return functionStarts.get(id);
+    }
+
+    int functionOf(int pc) {
+        return functionOf[pc];
+    }
+
+    int target(int pc) {
+        return target[pc];
+    }
+
+    int staticBase(int pc) {
+        return staticBase[pc];
+    }
+
+}
@@ -0,0 +1,348 @@
+package br.ufma.ecp.vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import br.ufma.ecp.VMInstruction;
+
+// traduz um VMProgram ligado para assembly Hack. O codigo de cada chamada, retorno e comparacao
+// fica em rotinas compartilhadas ($CALLn, $RETURN, $EQ, $GT, $LT) emitidas uma vez depois do
+// bootstrap; no lugar de cada instrucao ficam so alguns comandos que preparam R13/R14 e desviam.
+// Os statics usam os enderecos ja resolvidos pelo VMProgram, entao a RAM fica igual a do VMInterpreter
+public class VMTranslator {
+
+    // pushes e pops em local/argument/this/that com indice ate aqui somam 1 ao endereco repetidas vezes
+    // em vez de carregar o indice e somar
+    private static final int MAX_INLINE_OFFSET = 3;
+
+    private final VMProgram program;
+    private final StringBuilder out = new StringBuilder();
+    private int instructions;
+    private int returns;
+
+    public VMTranslator(VMProgram program) {
+        this.program = program;
+    }
+
+    // entry e a funcao chamada pelo bootstrap; quando ela retorna a CPU fica presa em $HALT
+    // com o valor de retorno em RAM[256]
+    public String translate(String entry) {
+        if (program.functionId(entry) < 0)
+            throw new IllegalArgumentException("undefined function " + entry);
+        out.setLength(0);
+        instructions = 0;
+        returns = 0;
+
+        a("256"); c("D=A"); a("SP"); c("M=D");
+        call(entry, 0, "$BOOT");
+        label("$HALT");
+        a("$HALT"); c("0;JMP");
+        sharedRoutines();
+
+        var code = program.code();
+        for (int pc = 0; pc < code.size(); pc++)
+            translate(pc, code.get(pc));
+        return out.toString();
+    }
+
+    // Sys.init quando o programa o define, senao Main.main
+    public String translate() {
+        return translate(program.functionId("Sys.init") >= 0 ? "Sys.init" : "Main.main");
+    }
+
+    // instrucoes Hack (sem contar rotulos) da ultima traducao
+    public int instructionCount() {
+        return instructions;
+    }
+
+    private void translate(int pc, VMInstruction instruction) {
+        var function = program.functionName(program.functionOf(pc));
+        switch (instruction.type()) {
+            case PUSH:
+                push(pc, instruction.arg(), instruction.index());
+                break;
+            case POP:
+                pop(pc, instruction.arg(), instruction.index());
+                break;
+            case ARITHMETIC:
+                arithmetic(instruction.arg());
+                break;
+            case LABEL:
+                label(function + "$" + instruction.arg());
+                break;
+            case GOTO:
+                a(function + "$" + instruction.arg()); c("0;JMP");
+                break;
+            case IF_GOTO:
+                a("SP"); c("AM=M-1"); c("D=M");
+                a(function + "$" + instruction.arg()); c("D;JNE");
+                break;
+            case CALL:
+                if (program.target(pc) < 0)
+                    throw new IllegalArgumentException("undefined function " + instruction.arg() + " called in " + function
+                        + " (the OS functions must be part of the program)");
+                call(instruction.arg(), instruction.index(), function + "$ret." + returns++);
+                break;
+            case FUNCTION:
+                function(instruction.arg(), instruction.index());
+                break;
+            case RETURN:
+                a("$RETURN"); c("0;JMP");
+                break;
+        }
+    }
+
+    private void push(int pc, String segment, int index) {
+        switch (segment) {
+            case "constant":
+                // 0 e 1 vao direto para a pilha, sem passar por D
+                if (index <= 1) {
+                    a("SP"); c("M=M+1"); c("A=M-1"); c(index == 0 ? "M=0" : "M=1");
+                    return;
+                }
+                a(Integer.toString(index)); c("D=A");
+                break;
+            case "local": case "argument": case "this": case "that":
+                address(segment, index);
+                c("D=M");
+                break;
+            default:
+                a(Integer.toString(fixedAddress(pc, segment, index))); c("D=M");
+                break;
+        }
+        a("SP"); c("M=M+1"); c("A=M-1"); c("M=D");
+    }
+
+    private void pop(int pc, String segment, int index) {
+        switch (segment) {
+            case "local": case "argument": case "this": case "that":
+                if (index <= MAX_INLINE_OFFSET) {
+                    a("SP"); c("AM=M-1"); c("D=M");
+                    address(segment, index);
+                    c("M=D");
+                } else {
+                    // o endereco e calculado antes do pop e guardado em R13
+                    address(segment, index);
+                    c("D=A"); a("R13"); c("M=D");
+                    a("SP"); c("AM=M-1"); c("D=M");
+                    a("R13"); c("A=M"); c("M=D");
+                }
+                break;
+            default:
+                a("SP"); c("AM=M-1"); c("D=M");
+                a(Integer.toString(fixedAddress(pc, segment, index))); c("M=D");
+                break;
+        }
+    }
+
+    // deixa em A o endereco de segment[index]; usa D so quando o indice e grande
+    private void address(String segment, int index) {
+        a(register(segment));
+        if (index == 0) {
+            c("A=M");
+        } else if (index <= MAX_INLINE_OFFSET) {
+            c("A=M+1");
+            for (int i = 1; i < index; i++)
+                c("A=A+1");
+        } else {
+            c("D=M"); a(Integer.toString(index)); c("A=D+A");
+        }
+    }
+
+    private static String register(String segment) {
+        switch (segment) {
+            case "local": return "LCL";
+            case "argument": return "ARG";
+            case "this": return "THIS";
+            default: return "THAT";
+        }
+    }
+
+    // temp, pointer e static tem endereco conhecido na traducao
+    private int fixedAddress(int pc, String segment, int index) {
+        switch (segment) {
+            case "temp": return VMInterpreter.TEMP + index;
+            case "pointer": return VMInterpreter.THIS + index;
+            case "static": return program.staticBase(pc) + index;
+            default: throw new IllegalArgumentException("cannot pop to " + segment);
+        }
+    }
+
+    private void arithmetic(String command) {
+        switch (command) {
+            case "neg":
+            case "not":
+                a("SP"); c("A=M-1"); c(command.equals("neg") ? "M=-M" : "M=!M");
+                return;
+            case "eq":
+            case "gt":
+            case "lt":
+                var back = "$cmp." + returns++;
+                a(back); c("D=A");
+                a("$" + command.toUpperCase()); c("0;JMP");
+                label(back);
+                return;
+            default:
+                break;
+        }
+        a("SP"); c("AM=M-1"); c("D=M"); c("A=A-1");
+        switch (command) {
+            case "add": c("M=D+M"); break;
+            case "sub": c("M=M-D"); break;
+            case "and": c("M=D&M"); break;
+            case "or": c("M=D|M"); break;
+            default: throw new IllegalArgumentException("unknown command " + command);
+        }
+    }
+
+    // R13 = funcao, D = endereco de retorno; $CALLn sabe o numero de argumentos
+    private void call(String name, int nArgs, String back) {
+        a(name); c("D=A"); a("R13"); c("M=D");
+        a(back); c("D=A");
+        a("$CALL" + nArgs); c("0;JMP");
+        label(back);
+    }
+
+    private void function(String name, int nLocals) {
+        label(name);
+        if (nLocals == 0)
+            return;
+        a("SP"); c("A=M"); c("M=0");
+        for (int i = 1; i < nLocals; i++) {
+            c("A=A+1"); c("M=0");
+        }
+        c("D=A+1"); a("SP"); c("M=D");
+    }
+
+    private void sharedRoutines() {
+        // uma entrada por numero de argumentos usado no programa: empilha o retorno e poe em R14
+        // o tamanho da moldura; $CALL empilha LCL, ARG, THIS e THAT, faz ARG = SP - R14, LCL = SP
+        // e desvia para R13
+        for (int nArgs : argumentCounts()) {
+            label("$CALL" + nArgs);
+            a("SP"); c("A=M"); c("M=D");
+            a(Integer.toString(nArgs + 5)); c("D=A"); a("R14"); c("M=D");
+            a("$CALL"); c("0;JMP");
+        }
+        label("$CALL");
+        for (var register : new String[] { "LCL", "ARG", "THIS", "THAT" }) {
+            a(register); c("D=M"); a("SP"); c("AM=M+1"); c("M=D");
+        }
+        a("SP"); c("MD=M+1");
+        a("LCL"); c("M=D");
+        a("R14"); c("D=D-M"); a("ARG"); c("M=D");
+        a("R13"); c("A=M"); c("0;JMP");
+
+        // R13 = moldura (LCL), R14 = endereco de retorno
+        label("$RETURN");
+        a("LCL"); c("D=M"); a("R13"); c("M=D");
+        a("5"); c("A=D-A"); c("D=M"); a("R14"); c("M=D");
+        a("SP"); c("AM=M-1"); c("D=M"); a("ARG"); c("A=M"); c("M=D");
+        a("ARG"); c("D=M+1"); a("SP"); c("M=D");
+        for (var register : new String[] { "THAT", "THIS", "ARG", "LCL" }) {
+            a("R13"); c("AM=M-1"); c("D=M"); a(register); c("M=D");
+        }
+        a("R14"); c("A=M"); c("0;JMP");
+
+        // comparacoes: D = endereco de retorno; x - y pode transbordar, entao gt e lt so
+        // subtraem quando x e y tem o mesmo sinal
+        label("$EQ");
+        a("R13"); c("M=D");
+        a("SP"); c("AM=M-1"); c("D=M"); c("A=A-1"); c("D=M-D");
+        a("$TRUE"); c("D;JEQ");
+        a("$FALSE"); c("0;JMP");
+
+        compare("$GT", "JGT");
+        compare("$LT", "JLT");
+
+        label("$TRUE");
+        a("SP"); c("A=M-1"); c("M=-1");
+        a("R13"); c("A=M"); c("0;JMP");
+        label("$FALSE");
+        a("SP"); c("A=M-1"); c("M=0");
+        a("R13"); c("A=M"); c("0;JMP");
+    }
+
+    // o bootstrap chama a entrada sem argumentos
+    private TreeSet<Integer> argumentCounts() {
+        var counts = new TreeSet<Integer>();
+        counts.add(0);
+        for (var instruction : program.code())
+            if (instruction.type() == VMInstruction.Type.CALL)
+                counts.add(instruction.index());
+        return counts;
+    }
+
+    private void compare(String name, String jump) {
+        // sinais diferentes: gt e verdadeiro quando x >= 0, lt quando x < 0
+        var whenXNegative = jump.equals("JGT") ? "$FALSE" : "$TRUE";
+        var whenXPositive = jump.equals("JGT") ? "$TRUE" : "$FALSE";
+        label(name);
+        a("R13"); c("M=D");
+        a("SP"); c("AM=M-1"); c("D=M"); a("R14"); c("M=D");
+        a("SP"); c("A=M-1"); c("D=M");
+        a(name + ".XNEG"); c("D;JLT");
+        a("R14"); c("D=M"); a(name + ".SAME"); c("D;JGE");
+        a(whenXPositive); c("0;JMP");
+        label(name + ".XNEG");
+        a("R14"); c("D=M"); a(name + ".SAME"); c("D;JLT");
+        a(whenXNegative); c("0;JMP");
+        label(name + ".SAME");
+        a("R14"); c("D=M"); a("SP"); c("A=M-1"); c("D=M-D");
+        a("$TRUE"); c("D;" + jump);
+        a("$FALSE"); c("0;JMP");
+    }
+
+    private void a(String value) {
+        out.append('@').append(value).append('\n');
+        instructions++;
+    }
+
+    private void c(String instruction) {
+        out.append(instruction).append('\n');
+        instructions++;
+    }
+
+    private void label(String name) {
+        out.append('(').append(name).append(")\n");
+    }
+
+    static Path outputPath(File input) {
+        if (input.isDirectory())
+            return input.toPath().resolve(input.getName() + ".asm");
+        var name = input.getName();
+        int dot = name.lastIndexOf('.');
+        return input.toPath().resolveSibling((dot < 0 ? name : name.substring(0, dot)) + ".asm");
+    }
+
+    // uso: VMTranslator [-O] [--entry <function>] [-o <out.asm>] <file.jack | file.vm | directory>...
+    // sem -o o assembly vai para <dir>/<dir>.asm ou, para um arquivo, para o mesmo nome com .asm
+    public static void main(String[] args) throws IOException {
+        var optimize = false;
+        String entry = null;
+        String output = null;
+        var inputs = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-O")) optimize = true;
+            else if (args[i].equals("--entry") && i + 1 < args.length) entry = args[++i];
+            else if (args[i].equals("-o") && i + 1 < args.length) output = args[++i];
+            else inputs.add(new File(args[i]));
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("usage: VMTranslator [-O] [--entry <function>] [-o <out.asm>] <file.jack | file.vm | directory>...");
+            System.exit(1);
+        }
+
+        var program = VMProgram.link(VMInterpreter.sources(inputs, optimize));
+        var translator = new VMTranslator(program);
+        var asm = entry == null ? translator.translate() : translator.translate(entry);
+        var path = output != null ? Path.of(output) : outputPath(inputs.get(0));
+        Files.writeString(path, asm);
+        System.out.println(path + ": " + translator.instructionCount() + " Hack instructions");
+    }
+
+}
@@ -0,0 +1,182 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AppTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File copy(String resource, String name) throws IOException {
+        var file = folder.newFile(name);
+        Files.writeString(file.toPath(), fromFile(resource));
+        return file;
+    }
+
+    @Test
+    public void testParallelCompileKeepsOrderAndOutput() throws IOException {
+        var files = new ArrayList<File>();
+        files.add(copy("Square/Main.jack", "Main.jack"));
+        files.add(copy("Square/Square.jack", "Square.jack"));
+        files.add(copy("Square/SquareGame.jack", "SquareGame.jack"));
+
+        List<App.CompileResult> sequential = App.compileAll(files, 1);
+        var expected = new ArrayList<String>();
+        for (File f : files)
+            expected.add(Files.readString(new File(f.getParent(), f.getName().replace(".jack", ".vm")).toPath()));
+
+        List<App.CompileResult> parallel = App.compileAll(files, 4);
+        assertEquals(files.size(), parallel.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(sequential.get(i).inputFileName(), parallel.get(i).inputFileName());
+            assertTrue(parallel.get(i).success());
+            var vm = new File(files.get(i).getParent(), files.get(i).getName().replace(".jack", ".vm"));
+            assertEquals(expected.get(i), Files.readString(vm.toPath()));
+        }
+    }
+
+    @Test
+    public void testParallelCompileReportsFailure() throws IOException {
+        var files = new ArrayList<File>();
+        files.add(copy("Square/Main.jack", "Main.jack"));
+        var bad = folder.newFile("Bad.jack");
+        Files.writeString(bad.toPath(), "class Bad {\n function void f() { let ; }\n}\n");
+        files.add(bad);
+
+        var results = App.compileAll(files, 2);
+        assertTrue(results.get(0).success());
+        assertFalse(results.get(1).success());
+        assertEquals("[line 2] Error at ';': Expected IDENT\n", results.get(1).diagnostics());
+    }
+
+    @Test
+    public void testCacheSkipsUnchangedSources() throws IOException {
+        var files = new ArrayList<File>();
+        files.add(copy("Square/Main.jack", "Main.jack"));
+        files.add(copy("Square/Square.jack", "Square.jack"));
+        var cache = new BuildCache(folder.newFolder("cache").toPath(), "test");
+
+        App.compileAll(files, 1, cache);
+        assertEquals(0, cache.hits());
+        assertEquals(2, cache.misses());
+
+        var vm = new File(folder.getRoot(), "Square.vm").toPath();
+        var expected = Files.readString(vm);
+        Files.delete(vm);
+        Files.writeString(files.get(0).toPath(), fromFile("Square/Main.jack") + "\n// changed\n");
+
+        var results = App.compileAll(files, 2, cache);
+        assertTrue(results.get(0).success());
+        assertTrue(results.get(1).success());
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(expected, Files.readString(vm));
+    }
+
+    // as saidas tem as mesmas permissoes de um arquivo criado normalmente no mesmo diretorio,
+    // e nao o modo 0600 de Files.createTempFile
+    @Test
+    public void testOutputPermissionsFollowUmask() throws IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        var file = copy("Square/Square.jack", "Square.jack");
+        var cacheDir = folder.newFolder("cache").toPath();
+        var cache = new BuildCache(cacheDir, "test");
+
+        assertTrue(App.compileAll(List.of(file), 1, cache).get(0).success());
+        assertSamePermissions(file.toPath(), folder.getRoot().toPath().resolve("Square.vm"));
+        try (var entries = Files.list(cacheDir)) {
+            var entry = entries.filter(p -> p.toString().endsWith(".vm")).findFirst().orElseThrow();
+            assertSamePermissions(Files.createFile(cacheDir.resolve("fresh")), entry);
+        }
+    }
+
+    static void assertSamePermissions(Path expected, Path actual) throws IOException {
+        assertEquals(actual.toString(), Files.getPosixFilePermissions(expected), Files.getPosixFilePermissions(actual));
+    }
+
+    // a versao do compilador no cache vem do conteudo de todas as classes, nao da data do Parser.class
+    @Test
+    public void testCompilerVersionHashesClasses() {
+        var hash = BuildCache.classesHash();
+        assertFalse(hash, hash.startsWith("unknown"));
+        assertEquals(32, hash.length());
+        assertEquals(hash, BuildCache.classesHash());
+    }
+
+    @Test
+    public void testCompileStats() throws IOException {
+        var file = copy("Square/Square.jack", "Square.jack");
+        var result = App.compile(file);
+        var stats = result.stats();
+        var vm = new File(folder.getRoot(), "Square.vm").toPath();
+
+        assertTrue(result.success());
+        assertEquals(Files.size(file.toPath()), stats.bytesRead);
+        assertEquals(Files.size(vm), stats.bytesWritten);
+        assertEquals(Files.readAllLines(vm).size(), stats.vmInstructions);
+        assertEquals(new Scanner(Files.readAllBytes(file.toPath())).tokenize().size(), stats.tokens);
+
+        var json = CompileStats.toJson(List.of(stats));
+        assertTrue(json.startsWith("{\"units\":[{\"file\":"));
+        assertTrue(json.contains("\"vmInstructions\":" + stats.vmInstructions));
+        assertTrue(CompileStats.toText(List.of(stats)).contains("Square.jack"));
+    }
+
+    // .jack -> .vm -> .hack no mesmo processo, com o Math do programa no lugar do SO
+    @Test
+    public void testBuildRom() throws IOException {
+        var files = new ArrayList<File>();
+        files.add(copy("vm/Bench.jack", "Bench.jack"));
+        files.add(copy("vm/Math.jack", "Math.jack"));
+        var main = folder.newFile("Main.jack");
+        Files.writeString(main.toPath(), "class Main { function int main() { return Bench.run(); } }\n");
+        files.add(main);
+        for (var result : App.compileAll(files, 2))
+            assertTrue(result.diagnostics(), result.success());
+
+        var rom = App.romPath(folder.getRoot());
+        assertEquals(folder.getRoot().getName() + ".hack", rom.getFileName().toString());
+        int instructions = App.buildRom(folder.getRoot(), rom);
+        var lines = Files.readAllLines(rom);
+        assertEquals(instructions, lines.size());
+        for (var line : lines)
+            assertTrue(line, line.matches("[01]{16}"));
+        // bootstrap: @256
+        assertEquals("0000000100000000", lines.get(0));
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            assertSamePermissions(main.toPath(), rom);
+    }
+
+    // --watch --hack: gravar a ROM no diretorio observado nao dispara outra rodada
+    @Test
+    public void testWatchRebuildsRomOnlyAfterEdits() throws Exception {
+        var root = folder.getRoot();
+        var main = folder.newFile("Main.jack");
+        Files.writeString(main.toPath(), "class Main { function int main() { return 1; } }\n");
+        try (var watcher = new DirectoryWatcher(root.toPath(), 100)) {
+            assertTrue(App.recompile(List.of(main), root, null, false, true));
+            assertTrue(Files.exists(App.romPath(root)));
+            for (int i = 0; i < 3; i++)
+                assertFalse(App.recompile(watcher.awaitChanges(300), root, null, false, true));
+
+            Files.writeString(main.toPath(), "class Main { function int main() { return 2; } }\n");
+            assertTrue(App.recompile(watcher.awaitChanges(10_000), root, null, false, true));
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileDaemonTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CompileDaemon daemon;
+    private SocketAddress address;
+    private Thread serving;
+
+    @Before
+    public void start() throws IOException {
+        start(CompileDaemon.address(new File(folder.getRoot(), "test.sock").getPath()));
+    }
+
+    private void start(SocketAddress bind) throws IOException {
+        daemon = new CompileDaemon(bind, 2, null);
+        address = daemon.localAddress();
+        serving = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        serving.start();
+    }
+
+    // envia bytes crus e devolve a linha de cabecalho da resposta
+    private String raw(String request) throws IOException {
+        try (var channel = CompileDaemon.open(address)) {
+            channel.connect(address);
+            channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
+            return CompileDaemon.readLine(Channels.newInputStream(channel));
+        }
+    }
+
+    @After
+    public void stop() throws Exception {
+        daemon.close();
+        serving.join(5000);
+    }
+
+    @Test
+    public void testCompileSource() throws IOException {
+        var source = fromFile("Square/Square.jack");
+        try (var client = DaemonClient.connect(address)) {
+            var reply = client.compile(source);
+            assertTrue(reply.success());
+            assertTrue(reply.nanos() > 0);
+            assertEquals(new JackCompiler().compile(source).vm(), reply.body());
+
+            // a mesma conexao atende varias requisicoes
+            reply = client.compile("class Main {\n  function void main() {\n    let = 1;\n  }\n}\n");
+            assertFalse(reply.success());
+            assertEquals("[line 3] Error: Expected IDENT at '='\n", reply.body());
+        }
+    }
+
+    @Test
+    public void testCompileFileWritesVm() throws IOException {
+        var file = folder.newFile("Main.jack");
+        Files.writeString(file.toPath(), fromFile("Square/Main.jack"));
+        try (var client = DaemonClient.connect(address)) {
+            var reply = client.compile(file);
+            assertTrue(reply.success());
+            assertEquals("", reply.body());
+        }
+        var vm = Files.readString(new File(folder.getRoot(), "Main.vm").toPath());
+        assertEquals(new JackCompiler().compile(fromFile("Square/Main.jack")).vm(), vm);
+    }
+
+    // o tamanho do SOURCE vem do cliente: acima do limite o daemon responde com erro em vez de alocar
+    @Test
+    public void testSourceTooLarge() throws IOException {
+        assertTrue(raw("SOURCE " + (CompileDaemon.MAX_SOURCE_BYTES + 1) + "\n").startsWith("ERROR 0 "));
+        assertTrue(raw("SOURCE -1\n").startsWith("ERROR 0 "));
+        try (var client = DaemonClient.connect(address)) {
+            assertTrue(client.ping().success());
+        }
+    }
+
+    // conexoes paradas nao ocupam as threads de compilacao
+    @Test(timeout = 10000)
+    public void testIdleConnectionsDoNotBlockCompiles() throws IOException {
+        var idle = new ArrayList<DaemonClient>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                var client = DaemonClient.connect(address);
+                assertTrue(client.ping().success());
+                idle.add(client);
+            }
+            try (var client = DaemonClient.connect(address)) {
+                assertTrue(client.compile(fromFile("Square/Main.jack")).success());
+            }
+        } finally {
+            for (var client : idle)
+                client.close();
+        }
+    }
+
+    @Test
+    public void testSocketOnlyForOwner() throws IOException {
+        var socket = new File(folder.getRoot(), "test.sock").toPath();
+        if (socket.getFileSystem().supportedFileAttributeViews().contains("posix"))
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+        assertTrue(CompileDaemon.ownedByCurrentUser(socket));
+    }
+
+    // o socket padrao nao fica direto no tmpdir compartilhado
+    @Test
+    public void testDefaultSocketInPrivateDirectory() {
+        var socket = ((UnixDomainSocketAddress) CompileDaemon.address(null)).getPath();
+        assertEquals(CompileDaemon.defaultSocketDir().resolve(CompileDaemon.DEFAULT_SOCKET), socket);
+        assertFalse(socket.getParent().equals(Path.of(System.getProperty("java.io.tmpdir"))));
+    }
+
+    // um --daemon=<caminho> errado nao apaga o arquivo que estiver la
+    @Test
+    public void testRefusesToReplaceRegularFile() throws IOException {
+        var file = folder.newFile("Main.jack");
+        Files.writeString(file.toPath(), "class Main {}\n");
+        try {
+            new CompileDaemon(CompileDaemon.address(file.getPath()), 1, null).close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not a socket"));
+        }
+        assertEquals("class Main {}\n", Files.readString(file.toPath()));
+    }
+
+    // um socket deixado por um daemon que morreu e substituido
+    @Test
+    public void testReplacesStaleSocket() throws Exception {
+        stop();
+        var socket = new File(folder.getRoot(), "test.sock").toPath();
+        try (var stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            stale.bind(UnixDomainSocketAddress.of(socket));
+        }
+        assertTrue(Files.exists(socket));
+        start(CompileDaemon.address(socket.toString()));
+        try (var client = DaemonClient.connect(address)) {
+            assertTrue(client.ping().success());
+        }
+    }
+
+    @Test
+    public void testAddress() {
+        var tcp = (InetSocketAddress) CompileDaemon.address("tcp:8080");
+        assertTrue(tcp.getAddress().isLoopbackAddress());
+        assertEquals(8080, tcp.getPort());
+        try {
+            CompileDaemon.address("8080");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("tcp:8080"));
+        }
+    }
+
+    // por TCP, sem autenticacao, o daemon nao grava arquivos nem aceita SHUTDOWN; o cliente grava o .vm
+    @Test
+    public void testTcpOnlyCompilesSources() throws Exception {
+        stop();
+        start(CompileDaemon.address("tcp:0"));
+        var file = folder.newFile("Main.jack");
+        Files.writeString(file.toPath(), fromFile("Square/Main.jack"));
+
+        assertTrue(raw("COMPILE " + file.getAbsolutePath() + "\n").startsWith("ERROR 0 "));
+        assertFalse(new File(folder.getRoot(), "Main.vm").exists());
+        try (var client = DaemonClient.connect(address)) {
+            assertFalse(client.shutdown().success());
+            var reply = client.compile(file);
+            assertTrue(reply.body(), reply.success());
+            assertTrue(client.ping().success());
+        }
+        var vm = Files.readString(new File(folder.getRoot(), "Main.vm").toPath());
+        assertEquals(new JackCompiler().compile(fromFile("Square/Main.jack")).vm(), vm);
+    }
+
+    @Test
+    public void testShutdownAndNoDaemon() throws Exception {
+        try (var client = DaemonClient.connect(address)) {
+            assertTrue(client.ping().success());
+            assertTrue(client.shutdown().success());
+        }
+        serving.join(5000);
+        assertFalse(serving.isAlive());
+        assertNull(DaemonClient.connect(address));
+    }
+
+}
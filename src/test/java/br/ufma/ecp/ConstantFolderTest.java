@@ -0,0 +1,50 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConstantFolderTest {
+
+    @Test
+    public void testSixteenBitArithmetic() {
+        assertEquals(Integer.valueOf(-32768), ConstantFolder.binary('+', 32767, 1));
+        assertEquals(Integer.valueOf(32767), ConstantFolder.binary('-', -32768, 1));
+        assertEquals(Integer.valueOf(-25536), ConstantFolder.binary('*', 200, 200));
+        assertEquals(Integer.valueOf(-3), ConstantFolder.binary('/', -7, 2));
+        assertEquals(Integer.valueOf(-32768), ConstantFolder.unary('-', -32768));
+        assertEquals(Integer.valueOf(-1), ConstantFolder.unary('~', 0));
+    }
+
+    @Test
+    public void testBooleans() {
+        assertEquals(Integer.valueOf(-1), ConstantFolder.binary('=', 5, 5));
+        assertEquals(Integer.valueOf(0), ConstantFolder.binary('<', 5, 5));
+        assertEquals(Integer.valueOf(-1), ConstantFolder.binary('>', 6, 5));
+        assertEquals(Integer.valueOf(0), ConstantFolder.binary('&', -1, 0));
+        assertEquals(Integer.valueOf(-1), ConstantFolder.binary('|', -1, 0));
+    }
+
+    @Test
+    public void testUnsafeFoldsAreRefused() {
+        assertNull(ConstantFolder.binary('/', 1, 0));
+        assertNull(ConstantFolder.binary('/', -32768, -1));
+        // 30000 - (-30000) estoura: o resultado de lt/gt dependeria da traducao
+        assertNull(ConstantFolder.binary('<', 30000, -30000));
+    }
+
+    @Test
+    public void testIdentities() {
+        assertTrue(ConstantFolder.isNeutral('+', 0));
+        assertTrue(ConstantFolder.isNeutral('*', 1));
+        assertTrue(ConstantFolder.isNeutral('&', -1));
+        assertFalse(ConstantFolder.isNeutral('-', 1));
+        assertTrue(ConstantFolder.isAbsorbing('*', 0));
+        assertTrue(ConstantFolder.isAbsorbing('|', -1));
+        assertFalse(ConstantFolder.isAbsorbing('/', 0));
+    }
+
+}
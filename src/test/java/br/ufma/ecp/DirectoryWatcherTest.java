@@ -0,0 +1,64 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String MAIN = "class Main {\n  function void main() {\n    return;\n  }\n}\n";
+
+    @Test
+    public void testRepeatedWritesAreDebounced() throws Exception {
+        var main = folder.newFile("Main.jack");
+        var other = folder.newFile("Other.jack");
+        try (var watcher = new DirectoryWatcher(folder.getRoot().toPath(), 300)) {
+            for (int i = 0; i < 3; i++)
+                Files.writeString(main.toPath(), MAIN);
+            Files.writeString(other.toPath(), MAIN.replace("Main", "Other"));
+            Files.writeString(folder.newFile("notes.txt").toPath(), "x");
+
+            // sem arquivos repetidos e sem o .txt
+            assertEquals(List.of(main, other), watcher.awaitChanges(10_000));
+        }
+    }
+
+    @Test
+    public void testOnlyChangedFilesAndCompiledOutputIgnored() throws Exception {
+        var main = folder.newFile("Main.jack");
+        Files.writeString(main.toPath(), MAIN);
+        folder.newFile("Other.jack");
+        try (var watcher = new DirectoryWatcher(folder.getRoot().toPath(), 100)) {
+            assertTrue(watcher.awaitChanges(200).isEmpty());
+
+            Files.writeString(main.toPath(), MAIN.replace("return;", "do Output.printInt(1);\n    return;"));
+            List<File> changed = watcher.awaitChanges(10_000);
+            assertEquals(List.of(main), changed);
+
+            // gravar o .vm nao dispara nova compilacao
+            assertTrue(App.compile(main).success());
+            assertTrue(watcher.awaitChanges(500).isEmpty());
+        }
+    }
+
+    @Test
+    public void testSourcesAreSorted() throws IOException {
+        folder.newFile("B.jack");
+        folder.newFile("A.jack");
+        folder.newFile("A.vm");
+        assertEquals(List.of(new File(folder.getRoot(), "A.jack"), new File(folder.getRoot(), "B.jack")),
+            App.sources(folder.getRoot()));
+    }
+
+}
@@ -0,0 +1,65 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class JackCompilerTest extends TestSupport {
+
+    private static String vmOf(String source) {
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), false);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testCompileMatchesParser() throws IOException {
+        var source = fromFile("Square/SquareGame.jack");
+        var result = new JackCompiler().compile(source);
+        assertTrue(result.success());
+        assertEquals("SquareGame", result.className());
+        assertEquals(vmOf(source), result.vm());
+    }
+
+    @Test
+    public void testReuseDoesNotLeakState() throws IOException {
+        var compiler = new JackCompiler();
+        var square = fromFile("Square/Square.jack");
+        var main = fromFile("Square/Main.jack");
+
+        var first = compiler.compile(square);
+        var second = compiler.compile(main);
+        var third = compiler.compile(ByteBuffer.wrap(square.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(vmOf(square), first.vm());
+        assertEquals(vmOf(main), second.vm());
+        assertEquals(first.vm(), third.vm());
+        assertEquals(first.vmInstructions(), third.vmInstructions());
+    }
+
+    @Test
+    public void testDiagnosticsAreReturned() {
+        var compiler = new JackCompiler();
+        var result = compiler.compile("class Main {\n  function void main() {\n    let = 1;\n  }\n}\n");
+        assertFalse(result.success());
+        assertEquals(1, result.diagnostics().size());
+        assertEquals(3, result.diagnostics().get(0).line());
+        assertEquals("[line 3] Error: Expected IDENT at '='", result.diagnostics().get(0).toString());
+
+        result = compiler.compile("class Main {\n  function void main() {\n    let x = 1 # 2;\n  }\n}\n");
+        assertFalse(result.success());
+        assertTrue(result.diagnostics().get(0).message().startsWith("Unexpected character"));
+
+        // um erro anterior nao afeta a proxima compilacao
+        result = compiler.compile("class Main {\n  function void main() {\n    return;\n  }\n}\n");
+        assertTrue(result.success());
+        assertEquals("function Main.main 0\npush constant 0\nreturn\n", result.vm());
+    }
+
+}
@@ -0,0 +1,59 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JackProgramGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameSeedSameProgram() {
+        var first = new JackProgramGenerator(7).subroutines(5).generate("Gen");
+        var second = new JackProgramGenerator(7).subroutines(5).generate("Gen");
+        var other = new JackProgramGenerator(8).subroutines(5).generate("Gen");
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    public void testGeneratedProgramCompiles() {
+        var source = new JackProgramGenerator(1).subroutines(20).statements(30).depth(4).stringDensity(0.3).generate("Gen");
+        var scanner = new Scanner(source.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(scanner.tokenize(), false);
+        parser.parse();
+        assertTrue(scanner.diagnostics().isEmpty());
+        assertTrue(parser.VMOutput().contains("function Gen.f19 7"));
+    }
+
+    @Test
+    public void testSizeScales() {
+        var small = new JackProgramGenerator(3).subroutines(2).statements(10).generate("Gen");
+        var large = new JackProgramGenerator(3).subroutines(20).statements(100).generate("Gen");
+        assertTrue(large.lines().count() > 20 * small.lines().count());
+    }
+
+    @Test
+    public void testStressCompileDirectory() throws IOException {
+        var dir = folder.newFolder("gen").toPath();
+        new JackProgramGenerator(42).subroutines(50).statements(50).write(dir, 8);
+
+        var files = new ArrayList<File>();
+        for (int i = 0; i < 8; i++)
+            files.add(dir.resolve("Gen" + i + ".jack").toFile());
+        for (var result : App.compileAll(files, 4))
+            assertTrue(result.diagnostics(), result.success());
+    }
+
+}
@@ -0,0 +1,87 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrEventsTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompileEmitsEvents() throws IOException {
+        var source = folder.newFile("Square.jack");
+        Files.writeString(source.toPath(), fromFile("Square/Square.jack"));
+        var dump = folder.getRoot().toPath().resolve("events.jfr");
+
+        try (var recording = new Recording()) {
+            recording.enable("br.ufma.ecp.CompileUnit");
+            recording.enable("br.ufma.ecp.Subroutine");
+            recording.enable("br.ufma.ecp.FileIO");
+            recording.start();
+            assertTrue(App.compile(source).success());
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        var events = RecordingFile.readAllEvents(dump);
+        var byType = events.stream().collect(Collectors.groupingBy(e -> e.getEventType().getName()));
+
+        RecordedEvent unit = byType.get("br.ufma.ecp.CompileUnit").get(0);
+        assertEquals("Square", unit.getString("className"));
+        assertEquals(Files.size(source.toPath()), unit.getLong("size"));
+        assertTrue(unit.getBoolean("success"));
+
+        var subroutines = byType.get("br.ufma.ecp.Subroutine");
+        assertEquals(10, subroutines.size());
+        assertEquals("Square.new", subroutines.get(0).getString("name"));
+        assertTrue(subroutines.stream().mapToInt(e -> e.getInt("vmInstructions")).sum() <= unit.getInt("vmInstructions"));
+
+        var io = byType.get("br.ufma.ecp.FileIO");
+        assertEquals(2, io.size());
+    }
+
+    // com -O o peephole retem instrucoes; a contagem de cada subrotina tem que bater com o .vm gerado
+    @Test
+    public void testSubroutineCountsMatchOptimizedOutput() throws IOException {
+        var source = folder.newFile("Square.jack");
+        Files.writeString(source.toPath(), fromFile("Square/Square.jack"));
+        var dump = folder.getRoot().toPath().resolve("events.jfr");
+
+        try (var recording = new Recording()) {
+            recording.enable("br.ufma.ecp.Subroutine");
+            recording.start();
+            assertTrue(App.compile(source, null, true).success());
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        var expected = new HashMap<String, Integer>();
+        String function = null;
+        for (var line : Files.readAllLines(folder.getRoot().toPath().resolve("Square.vm"))) {
+            if (line.startsWith("function "))
+                function = line.split(" ")[1];
+            expected.merge(function, 1, Integer::sum);
+        }
+
+        var counts = new HashMap<String, Integer>();
+        for (var event : RecordingFile.readAllEvents(dump))
+            if (event.getEventType().getName().equals("br.ufma.ecp.Subroutine"))
+                counts.put(event.getString("name"), event.getInt("vmInstructions"));
+        assertEquals(expected, counts);
+    }
+
+}
@@ -376,4 +376,17 @@ public class ParserTest extends TestSupport {
   
     }
 
+    @Test
+    public void testParseWithoutXml() throws IOException {
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+
+        var withXml = new Parser(input);
+        withXml.parse();
+        var withoutXml = new Parser(input, false);
+        withoutXml.parse();
+
+        assertEquals("", withoutXml.XMLOutput());
+        assertEquals(withXml.VMOutput(), withoutXml.VMOutput());
+    }
+
 }
@@ -0,0 +1,134 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PeepholeOptimizerTest extends TestSupport {
+
+    private static String optimize(int window, List<PeepholeRule> rules, VMInstruction... instructions) {
+        var out = new StringBuilder();
+        var optimizer = new PeepholeOptimizer(window, rules, i -> i.appendTo(out));
+        for (var i : instructions)
+            optimizer.add(i);
+        optimizer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void testPushPopAndDoubleUnary() {
+        assertEquals("", optimize(4, PeepholeRule.DEFAULTS,
+            VMInstruction.push("local", 1), VMInstruction.pop("local", 1)));
+        assertEquals("push local 1\npop local 2\n", optimize(4, PeepholeRule.DEFAULTS,
+            VMInstruction.push("local", 1), VMInstruction.pop("local", 2)));
+        assertEquals("push local 0\n", optimize(4, PeepholeRule.DEFAULTS,
+            VMInstruction.push("local", 0), VMInstruction.arithmetic("not"), VMInstruction.arithmetic("not")));
+    }
+
+    @Test
+    public void testNegatedBranchCancelsComparisonNot() {
+        // if (~(x = 0)) ... => eq; not; if-goto IF_TRUE0; goto IF_FALSE0; label IF_TRUE0
+        var vm = optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.push("local", 0), VMInstruction.push("constant", 0), VMInstruction.arithmetic("eq"),
+            VMInstruction.arithmetic("not"), VMInstruction.ifGoto("IF_TRUE0"), VMInstruction.jump("IF_FALSE0"),
+            VMInstruction.label("IF_TRUE0"));
+        assertEquals("push local 0\npush constant 0\neq\nif-goto IF_FALSE0\nlabel IF_TRUE0\n", vm);
+    }
+
+    // o not e bit a bit: com um int qualquer (~5 != 0, mas 5 != 0 tambem) o desvio nao pode ser invertido
+    @Test
+    public void testNegatedBranchKeepsIntCondition() {
+        var vm = optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.push("local", 0), VMInstruction.arithmetic("not"),
+            VMInstruction.ifGoto("IF_TRUE0"), VMInstruction.jump("IF_FALSE0"), VMInstruction.label("IF_TRUE0"));
+        assertEquals("push local 0\nnot\nif-goto IF_TRUE0\ngoto IF_FALSE0\nlabel IF_TRUE0\n", vm);
+    }
+
+    @Test
+    public void testConstantConditions() {
+        // while (true): a condicao some e o laco vira um goto no final
+        var vm = optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.label("WHILE_EXP0"), VMInstruction.push("constant", 0), VMInstruction.arithmetic("not"),
+            VMInstruction.arithmetic("not"), VMInstruction.ifGoto("WHILE_END0"));
+        assertEquals("label WHILE_EXP0\n", vm);
+
+        vm = optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.push("constant", 0), VMInstruction.arithmetic("not"), VMInstruction.ifGoto("L"),
+            VMInstruction.label("L"));
+        assertEquals("label L\n", vm);
+
+        // if (true): o ramo do else some e o then segue direto
+        vm = optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.push("constant", 0), VMInstruction.arithmetic("not"), VMInstruction.ifGoto("IF_TRUE0"),
+            VMInstruction.jump("IF_FALSE0"), VMInstruction.label("IF_TRUE0"));
+        assertEquals("label IF_TRUE0\n", vm);
+    }
+
+    @Test
+    public void testUnreachableCode() {
+        assertEquals("goto L\nlabel M\npush local 0\n", optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.jump("L"), VMInstruction.push("local", 1), VMInstruction.arithmetic("not"),
+            VMInstruction.label("M"), VMInstruction.push("local", 0)));
+        // a funcao seguinte nunca e removida
+        var function = new VMInstruction(VMInstruction.Type.FUNCTION, "Main.g", 0);
+        var ret = new VMInstruction(VMInstruction.Type.RETURN, "", 0);
+        assertEquals("return\nfunction Main.g 0\n", optimize(8, PeepholeRule.DEFAULTS, ret, function));
+    }
+
+    @Test
+    public void testWindowAndRuleSetAreConfigurable() {
+        VMInstruction[] branch = {
+            VMInstruction.arithmetic("lt"), VMInstruction.arithmetic("not"), VMInstruction.ifGoto("A"),
+            VMInstruction.jump("B"), VMInstruction.label("A")
+        };
+        // janela menor que o padrao: a regra de 5 instrucoes e ignorada
+        assertEquals("lt\nnot\nif-goto A\ngoto B\nlabel A\n", optimize(4, PeepholeRule.DEFAULTS, branch));
+        assertEquals("lt\nif-goto B\nlabel A\n", optimize(5, List.of(PeepholeRule.NEGATED_BRANCH), branch));
+        assertEquals("lt\nnot\nif-goto A\ngoto B\nlabel A\n", optimize(8, List.of(PeepholeRule.PUSH_POP), branch));
+        // sem not antes o desvio fica como esta
+        assertEquals("push local 0\nif-goto A\ngoto B\nlabel A\n", optimize(8, PeepholeRule.DEFAULTS,
+            VMInstruction.push("local", 0), VMInstruction.ifGoto("A"), VMInstruction.jump("B"), VMInstruction.label("A")));
+
+        var custom = PeepholeRule.of(2, w -> w.get(0).is(VMInstruction.Type.ARITHMETIC, "neg")
+            && w.get(1).is(VMInstruction.Type.ARITHMETIC, "add") ? List.of(VMInstruction.arithmetic("sub")) : null);
+        assertEquals("sub\n", optimize(2, List.of(custom), VMInstruction.arithmetic("neg"), VMInstruction.arithmetic("add")));
+    }
+
+    private static String compile(String source, boolean peephole) {
+        var vmWriter = new VMWriter();
+        vmWriter.setConstantFolding(true);
+        if (peephole)
+            vmWriter.setPeephole(8, PeepholeRule.DEFAULTS);
+        new Parser(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)), false, vmWriter).parse();
+        return vmWriter.vmOutput();
+    }
+
+    @Test
+    public void testOptimizedProgramsAreNeverLarger() throws IOException {
+        var sources = new ArrayList<String>();
+        sources.add(fromFile("Square/Square.jack"));
+        sources.add(fromFile("Square/SquareGame.jack"));
+        sources.add(fromFile("Square/Main.jack"));
+        var generator = new JackProgramGenerator(3).mix(2, 3, 3, 1, 1);
+        for (int i = 0; i < 5; i++)
+            sources.add(generator.generate("Gen" + i));
+
+        int before = 0, after = 0;
+        for (var source : sources) {
+            var plain = compile(source, false).split("\n").length;
+            var optimized = compile(source, true).split("\n").length;
+            assertTrue(optimized <= plain);
+            before += plain;
+            after += optimized;
+        }
+        assertTrue(after < before);
+    }
+
+}
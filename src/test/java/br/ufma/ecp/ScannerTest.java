@@ -1,9 +1,13 @@
 package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -63,6 +67,97 @@ public class ScannerTest extends TestSupport {
         assertEquals(expectedResult, result.toString());
     }
 
-    
-    
+    @Test
+    public void testScannerWithDirectBuffer() throws IOException {
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+        var direct = ByteBuffer.allocateDirect(input.length);
+        direct.put(input).flip();
+
+        var expected = new Scanner(input);
+        var scanner = new Scanner(direct);
+        Token tk;
+        do {
+            var ex = expected.nextToken();
+            tk = scanner.nextToken();
+            assertEquals(ex.type, tk.type);
+            assertEquals(ex.lexeme, tk.lexeme);
+            assertEquals(ex.line, tk.line);
+        } while (tk.type != TokenType.EOF);
+    }
+
+    @Test
+    public void testKeywords() {
+        var input = "class constructor function method field static var int char boolean void "
+                  + "true false null this let do if else while return";
+        var expected = new TokenType[] {
+            TokenType.CLASS, TokenType.CONSTRUCTOR, TokenType.FUNCTION, TokenType.METHOD, TokenType.FIELD,
+            TokenType.STATIC, TokenType.VAR, TokenType.INT, TokenType.CHAR, TokenType.BOOLEAN, TokenType.VOID,
+            TokenType.TRUE, TokenType.FALSE, TokenType.NULL, TokenType.THIS, TokenType.LET, TokenType.DO,
+            TokenType.IF, TokenType.ELSE, TokenType.WHILE, TokenType.RETURN
+        };
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        var words = input.split(" ");
+        for (int i = 0; i < expected.length; i++) {
+            var tk = scanner.nextToken();
+            assertEquals(expected[i], tk.type);
+            assertEquals(words[i], tk.lexeme);
+        }
+        assertEquals(TokenType.EOF, scanner.nextToken().type);
+    }
+
+    @Test
+    public void testKeywordPrefixesAreIdentifiers() {
+        var input = "i d classe thus fals fielD Do whilee returns construct constructors functio x_if";
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        for (var word : input.split(" ")) {
+            var tk = scanner.nextToken();
+            assertEquals(TokenType.IDENT, tk.type);
+            assertEquals(word, tk.lexeme);
+        }
+    }
+
+    @Test
+    public void testFixedTokensAreShared() {
+        var scanner = new Scanner("f(a, b, c);\ng(d);".getBytes(StandardCharsets.UTF_8));
+        var tokens = new ArrayList<Token>();
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken())
+            tokens.add(tk);
+
+        assertSame(tokens.get(3), tokens.get(5));     // as duas virgulas da linha 1
+        assertEquals(1, tokens.get(1).line);
+        assertEquals(2, tokens.get(10).line);          // '(' da linha 2 e um novo token
+        assertEquals(TokenType.LPAREN, tokens.get(10).type);
+    }
+
+    @Test
+    public void testUnterminatedComment() {
+        var scanner = new Scanner("let x = 1;\n  /* sem fim\n".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 5; i++)
+            scanner.nextToken();
+        assertEquals(TokenType.EOF, scanner.nextToken().type);
+        assertEquals(List.of(new Diagnostic(2, 3, 13, "Unterminated comment")), scanner.diagnostics());
+    }
+
+    @Test
+    public void testUnterminatedString() {
+        var scanner = new Scanner("x = \"ola\ny;".getBytes(StandardCharsets.UTF_8));
+        scanner.nextToken();
+        scanner.nextToken();
+        var tk = scanner.nextToken();
+        assertEquals(TokenType.STRING, tk.type);
+        assertEquals("ola", tk.lexeme);
+        tk = scanner.nextToken();
+        assertEquals(TokenType.IDENT, tk.type);
+        assertEquals(2, tk.line);
+        assertEquals(TokenType.SEMICOLON, scanner.nextToken().type);
+        assertEquals(List.of(new Diagnostic(1, 5, 4, "Unterminated string")), scanner.diagnostics());
+    }
+
+    @Test
+    public void testUnexpectedCharacter() {
+        var scanner = new Scanner("a # b".getBytes(StandardCharsets.UTF_8));
+        scanner.tokenize();
+        assertEquals(List.of(new Diagnostic(1, 3, 2, "Unexpected character '#'")), scanner.diagnostics());
+    }
+
 }
@@ -0,0 +1,56 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+public class TokenStreamTest extends TestSupport {
+
+    @Test
+    public void testSameTokensAsScanner() throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var tokens = new Scanner(input).tokenize();
+        var scanner = new Scanner(input);
+
+        int i = 0;
+        Token tk;
+        do {
+            tk = scanner.nextToken();
+            assertEquals(tk.type, tokens.type(i));
+            assertEquals(tk.lexeme, tokens.lexeme(i));
+            assertEquals(tk.line, tokens.line(i));
+            i++;
+        } while (tk.type != TokenType.EOF);
+        assertEquals(i, tokens.size());
+    }
+
+    @Test
+    public void testStringAndIllegalLexemes() {
+        var tokens = new Scanner("x = \"ola mundo\" # 10".getBytes(StandardCharsets.UTF_8)).tokenize();
+        assertEquals(TokenType.STRING, tokens.type(2));
+        assertEquals("ola mundo", tokens.lexeme(2));
+        assertEquals(TokenType.ILLEGAL, tokens.type(3));
+        assertEquals("#", tokens.lexeme(3));
+        assertEquals("10", tokens.lexeme(4));
+        assertEquals(TokenType.EOF, tokens.type(5));
+    }
+
+    @Test
+    public void testParserWithTokenStream() throws IOException {
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(input);
+        parser.parse();
+
+        var fromStream = new Parser(new Scanner(input).tokenize(), true);
+        fromStream.parse();
+        assertEquals(parser.VMOutput(), fromStream.VMOutput());
+        assertEquals(parser.XMLOutput(), fromStream.XMLOutput());
+    }
+
+}
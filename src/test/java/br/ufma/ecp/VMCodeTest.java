@@ -0,0 +1,90 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class VMCodeTest extends TestSupport {
+
+    @Test
+    public void testInstructions() {
+        var code = new VMCode();
+        code.function("Main.main", 2);
+        code.push(VMWriter.Segment.LOCAL, 1);
+        code.arithmetic(VMWriter.Command.NOT);
+        code.ifGoto("END");
+        code.call("Math.multiply", 2);
+        code.label("END");
+        code.pop(VMWriter.Segment.TEMP, 0);
+        code.ret();
+
+        assertEquals(8, code.size());
+        assertEquals(VMInstruction.Type.PUSH, code.type(1));
+        assertEquals("local", code.segment(1));
+        assertEquals(1, code.operand(1));
+        assertNull(code.name(1));
+        assertEquals("not", code.segment(2));
+        assertEquals("END", code.name(3));
+        assertEquals("Math.multiply", code.name(4));
+        assertEquals(2, code.operand(4));
+        assertEquals("", code.segment(4));
+        // END aparece duas vezes, mas e guardado uma vez so
+        assertEquals(3, code.nameCount());
+        assertEquals(VMInstruction.parse("call Math.multiply 2"), code.instruction(4));
+        assertEquals(VMInstruction.parse("return"), code.instruction(7));
+
+        var text = "function Main.main 2\npush local 1\nnot\nif-goto END\ncall Math.multiply 2\nlabel END\npop temp 0\nreturn\n";
+        assertEquals(text, code.toString());
+        assertEquals(code.instructions(), VMCode.parse(text).instructions());
+    }
+
+    // o texto do VMCode e o mesmo que o VMWriter sempre gerou, com e sem otimizacoes
+    @Test
+    public void testRenderMatchesCompiler() throws IOException {
+        for (var optimize : new boolean[] { false, true }) {
+            var compiler = new JackCompiler(optimize);
+            var result = compiler.compile(fromFile("Square/SquareGame.jack"));
+            assertEquals(result.vm(), result.code().toString());
+            assertEquals(result.vmInstructions(), result.code().size());
+            assertEquals(result.vm(), VMCode.parse(result.vm()).toString());
+
+            // o resultado guarda uma copia: o compilador reutilizado nao o altera
+            var vm = result.vm();
+            compiler.compile(fromFile("Square/Main.jack"));
+            assertEquals(vm, result.code().toString());
+        }
+    }
+
+    // no modo streaming o codigo e escrito em blocos, e o resultado e o mesmo texto
+    @Test
+    public void testStreamingInChunks() throws IOException {
+        var source = new JackProgramGenerator(7).subroutines(20).statements(30).generate("Big");
+        var expected = new JackCompiler().compile(source);
+
+        var out = new ByteArrayOutputStream();
+        var vmWriter = new VMWriter(out);
+        var parser = new Parser(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)), false, vmWriter);
+        parser.parse();
+        vmWriter.flush();
+        assertEquals(expected.vm(), out.toString(StandardCharsets.UTF_8));
+        assertEquals(0, vmWriter.code().size());
+    }
+
+    @Test
+    public void testUnknownSegment() {
+        try {
+            VMCode.parse("push heap 1\n");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("unknown segment: push heap 1", e.getMessage());
+        }
+    }
+
+}
@@ -2,12 +2,16 @@ package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 
 import org.junit.Test;
 
 
-public class VMWriterTest {
+public class VMWriterTest extends TestSupport {
     @Test
     public void testInt () {
         var input = """
@@ -242,5 +246,142 @@ public class VMWriterTest {
             assertEquals(expected, actual);
     }
 
-    
+    @Test
+    public void testStreamingOutput () throws IOException {
+        var vmWriter = new VMWriter();
+        var out = new ByteArrayOutputStream();
+        var streaming = new VMWriter(out);
+        for (int i = 0; i < 5000; i++) {
+            vmWriter.writePush(VMWriter.Segment.LOCAL, i);
+            vmWriter.writeCall("Output.printInt", 1);
+            streaming.writePush(VMWriter.Segment.LOCAL, i);
+            streaming.writeCall("Output.printInt", 1);
+        }
+        assertEquals(true, out.size() > 0);
+        streaming.flush();
+        assertEquals("", streaming.vmOutput());
+        assertEquals(vmWriter.vmOutput(), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStreamingParser () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(input);
+        parser.parse();
+
+        var out = new ByteArrayOutputStream();
+        var vmWriter = new VMWriter(out);
+        var streaming = new Parser(ByteBuffer.wrap(input), false, vmWriter);
+        streaming.parse();
+        vmWriter.flush();
+        assertEquals(parser.VMOutput(), out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String folded(String expression) {
+        var vmWriter = new VMWriter();
+        vmWriter.optimize();
+        var parser = new Parser(ByteBuffer.wrap(expression.getBytes(StandardCharsets.UTF_8)), false, vmWriter);
+        parser.parseExpression();
+        return vmWriter.vmOutput();
+    }
+
+    private static String foldedReturn(String expression) {
+        var source = "class T { function int f(int x) { return " + expression + "; } }";
+        var vmWriter = new VMWriter();
+        vmWriter.optimize();
+        var parser = new Parser(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)), false, vmWriter);
+        parser.parse();
+        var vm = vmWriter.vmOutput();
+        // so o corpo, sem "function T.f 0" e "return"
+        return vm.substring(vm.indexOf('\n') + 1, vm.lastIndexOf("return\n"));
+    }
+
+    @Test
+    public void testConstantFolding () {
+        assertEquals("push constant 40\n", folded("10 + 30"));
+        // Jack avalia da esquerda para a direita, sem precedencia
+        assertEquals("push constant 12\n", folded("1 + 2 * 4 / (3 - 2)"));
+        assertEquals("push constant 5\nneg\n", folded("-5"));
+        assertEquals("push constant 0\nnot\n", folded("~false"));
+        assertEquals("push constant 0\n", folded("3 > 4"));
+        assertEquals("push constant 0\nnot\n", folded("(3 < 4) & (2 = 2)"));
+        // 16 bits: 200 * 200 = 40000 = -25536
+        assertEquals("push constant 25536\nneg\n", folded("200 * 200"));
+        assertEquals("push constant 32767\nnot\n", folded("32767 + 1"));
+        // divisao por zero fica para o Math.divide em tempo de execucao
+        assertEquals("push constant 1\npush constant 0\ncall Math.divide 2\n", folded("1 / 0"));
+    }
+
+    @Test
+    public void testAlgebraicIdentities () {
+        assertEquals("push argument 0\n", foldedReturn("x + 0"));
+        assertEquals("push argument 0\n", foldedReturn("x * 1"));
+        assertEquals("push argument 0\n", foldedReturn("x / (3 - 2)"));
+        assertEquals("push argument 0\n", foldedReturn("-(-x)"));
+        assertEquals("push argument 0\n", foldedReturn("~(~x)"));
+        assertEquals("push argument 0\npop temp 0\npush constant 0\n", foldedReturn("x * 0"));
+        assertEquals("push argument 0\nneg\nnot\n", foldedReturn("~(-x)"));
+        // a constante a esquerda de x nao e retida alem de x
+        assertEquals("push constant 2\npush argument 0\nadd\n", foldedReturn("2 + x"));
+        assertEquals("push argument 0\npush constant 2001\ncall Math.multiply 2\n", foldedReturn("x * (1 + 2000)"));
+    }
+
+    @Test
+    public void testFoldingWithoutConstantExpressions () throws IOException {
+        // Square.jack nao tem expressoes constantes: a dobra nao muda o codigo
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+        var plain = new Parser(input, false);
+        plain.parse();
+        var vmWriter = new VMWriter();
+        vmWriter.setConstantFolding(true);
+        new Parser(ByteBuffer.wrap(input), false, vmWriter).parse();
+        assertEquals(plain.VMOutput(), vmWriter.vmOutput());
+    }
+
+    // avalia o trecho gerado para x * c com uma pilha de 16 bits (so as instrucoes usadas pela reducao)
+    private static int run(String vm, int x) {
+        var stack = new ArrayDeque<Integer>();
+        var temp = new int[8];
+        for (var line : vm.split("\n")) {
+            var parts = line.split(" ");
+            switch (parts[0]) {
+                case "push":
+                    var i = Integer.parseInt(parts[2]);
+                    stack.push(parts[1].equals("argument") ? x : parts[1].equals("temp") ? temp[i] : i);
+                    break;
+                case "pop": temp[Integer.parseInt(parts[2])] = stack.pop(); break;
+                case "add": stack.push((int) (short) (stack.pop() + stack.pop())); break;
+                case "sub": stack.push((int) (short) (-stack.pop() + stack.pop())); break;
+                case "neg": stack.push((int) (short) -stack.pop()); break;
+                default: throw new IllegalArgumentException(line);
+            }
+        }
+        assertEquals(1, stack.size());
+        return stack.pop();
+    }
+
+    @Test
+    public void testStrengthReduction () {
+        assertEquals("push argument 0\npush argument 0\nadd\n", foldedReturn("x * 2"));
+        assertEquals("push argument 0\nneg\n", foldedReturn("x * (-1)"));
+        assertEquals("push argument 0\nneg\n", foldedReturn("x / (-1)"));
+        // sem push para repetir, x vai para temp 0
+        assertEquals("push argument 0\npush constant 1\nadd\npop temp 0\npush temp 0\npush temp 0\nadd\n",
+            foldedReturn("(x + 1) * 2"));
+        // fora do limite continua o Math.multiply
+        assertEquals("push argument 0\npush constant 1000\ncall Math.multiply 2\n", foldedReturn("x * 1000"));
+        assertEquals("push argument 0\npush constant 2\ncall Math.divide 2\n", foldedReturn("x / 2"));
+
+        for (int c = -255; c <= 255; c++) {
+            var literal = c < 0 ? "(-" + (-c) + ")" : Integer.toString(c);
+            var direct = foldedReturn("x * " + literal);
+            var spilled = foldedReturn("(x + 0 + 1 - 1) * " + literal);
+            for (int x : new int[] { 0, 1, -1, 7, -13, 181, 32767, -32768 }) {
+                assertEquals(direct, (int) (short) (x * c), run(direct, x));
+                if (!spilled.contains("call"))
+                    assertEquals(spilled, (int) (short) (x * c), run(spilled, x));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,77 @@
+package br.ufma.ecp.hack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HackAssemblerTest {
+
+    private static String hack(String asm) throws IOException {
+        var out = new StringBuilder();
+        new HackAssembler(asm).writeHack(out);
+        return out.toString();
+    }
+
+    private static void assertError(String expected, String asm) {
+        try {
+            new HackAssembler(asm).assemble();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(expected, e.getMessage());
+        }
+    }
+
+    // Add.asm do nand2tetris
+    @Test
+    public void testAdd() throws IOException {
+        var asm = "// soma 2 e 3\n@2\nD=A\n@3\nD=D+A\n@0\nM=D\n";
+        var expected = "0000000000000010\n1110110000010000\n0000000000000011\n1110000010010000\n"
+            + "0000000000000000\n1110001100001000\n";
+        assertEquals(expected, hack(asm));
+        assertEquals(6, new HackAssembler(asm).instructionCount());
+    }
+
+    @Test
+    public void testComputations() throws IOException {
+        var asm = "D=M\nD=D-M\nD;JGT\n0;JMP\nAM=M-1\nMD=M+1\nM=D|M\nM=M+D\nAMD=!A ; JNE  // comentario\n";
+        var expected = "1111110000010000\n1111010011010000\n1110001100000001\n1110101010000111\n"
+            + "1111110010101000\n1111110111011000\n1111010101001000\n1111000010001000\n1110110001111101\n";
+        assertEquals(expected, hack(asm));
+    }
+
+    // rotulos valem para frente e para tras; variaveis ganham 16, 17, ... na ordem em que aparecem
+    @Test
+    public void testSymbols() {
+        var asm = "(START)\n@i\nM=1\n@END\n0;JMP\n@sum\n  (END)  \n@i\n@START\n@R13\n@SCREEN\n";
+        var assembler = new HackAssembler(asm);
+        var rom = assembler.assemble();
+        assertEquals(16, rom[0]);
+        assertEquals(5, rom[2]);
+        assertEquals(17, rom[4]);
+        assertEquals(16, rom[5]);
+        assertEquals(0, rom[6]);
+        assertEquals(13, rom[7]);
+        assertEquals(16384, rom[8]);
+        assertEquals(5, assembler.address("END"));
+        assertEquals(17, assembler.address("sum"));
+        assertEquals(-1, assembler.address("missing"));
+        // montar de novo da o mesmo resultado
+        assertEquals(rom[4], assembler.assemble()[4]);
+    }
+
+    @Test
+    public void testErrors() {
+        assertError("line 2: invalid computation D+2", "@1\nD=D+2\n");
+        assertError("line 1: invalid jump JMPP", "0;JMPP\n");
+        assertError("line 1: invalid destination X", "X=D\n");
+        assertError("line 3: label defined twice: LOOP", "(LOOP)\n@LOOP\n(LOOP)\n");
+        assertError("line 1: value out of range 32768", "@32768\n");
+        assertError("line 1: invalid number 1abc", "@1abc\n");
+        assertError("line 1: invalid symbol a-b", "@a-b\n");
+        assertError("line 1: missing ) in label", "(LOOP\n");
+    }
+
+}
@@ -0,0 +1,61 @@
+package br.ufma.ecp.vm;
+
+import br.ufma.ecp.hack.HackAssembler;
+
+// CPU Hack para os testes: executa a ROM montada pelo HackAssembler instrucao por instrucao, com a
+// ULA do nand2tetris, contando os ciclos
+final class HackMachine {
+
+    final short[] ram = new short[VMInterpreter.RAM_SIZE];
+    private final HackAssembler assembler;
+    private final short[] rom;
+    private long cycles;
+
+    HackMachine(String asm) {
+        assembler = new HackAssembler(asm);
+        rom = assembler.assemble();
+    }
+
+    int symbol(String name) {
+        return assembler.address(name);
+    }
+
+    int size() {
+        return rom.length;
+    }
+
+    long cycles() {
+        return cycles;
+    }
+
+    // executa a partir do endereco 0 ate chegar em halt
+    void run(int halt, long maxCycles) {
+        int pc = 0, a = 0, d = 0;
+        while (pc != halt) {
+            if (++cycles > maxCycles)
+                throw new IllegalStateException("cycle limit of " + maxCycles + " reached");
+            int word = rom[pc] & 0xffff;
+            if ((word & 0x8000) == 0) {
+                a = word;
+                pc++;
+                continue;
+            }
+            int x = d, y = (word & 0x1000) != 0 ? ram[a & 0x7fff] : a;
+            if ((word & 0x800) != 0) x = 0;
+            if ((word & 0x400) != 0) x = ~x;
+            if ((word & 0x200) != 0) y = 0;
+            if ((word & 0x100) != 0) y = ~y;
+            int out = (word & 0x80) != 0 ? x + y : x & y;
+            if ((word & 0x40) != 0) out = ~out;
+            out = (short) out;
+
+            int target = a;
+            if ((word & 0x8) != 0) ram[a & 0x7fff] = (short) out;
+            if ((word & 0x20) != 0) a = out;
+            if ((word & 0x10) != 0) d = out;
+            boolean jump = ((word & 0x4) != 0 && out < 0) || ((word & 0x2) != 0 && out == 0) || ((word & 0x1) != 0 && out > 0);
+            pc = jump ? target & 0x7fff : pc + 1;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package br.ufma.ecp.vm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.ufma.ecp.JackCompiler;
+import br.ufma.ecp.JackProgramGenerator;
+import br.ufma.ecp.TestSupport;
+
+public class VMExecutorTest {
+
+    // statics e heap; na pilha ficam molduras mortas com enderecos de retorno, que cada executor codifica a seu modo
+    private static void assertSameMemory(String message, short[] expected, short[] actual) {
+        for (int address = VMProgram.STATIC_START; address < VMInterpreter.RAM_SIZE; address++) {
+            if (address == VMInterpreter.STACK_START)
+                address = OperatingSystem.HEAP_START;
+            assertEquals(message + " RAM[" + address + "]", expected[address], actual[address]);
+        }
+    }
+
+    private static VMProgram compile(boolean optimize, String... classes) throws IOException {
+        var compiler = new JackCompiler(optimize);
+        var sources = new ArrayList<String>();
+        for (var name : classes)
+            sources.add(compiler.compile(TestSupport.fromFile("vm/" + name + ".jack")).vm());
+        return VMProgram.parse(sources);
+    }
+
+    @Test
+    public void testSameResultsAsInterpreter() throws IOException {
+        for (var optimize : new boolean[] { false, true }) {
+            var program = compile(optimize, "Main", "Point");
+            var interpreter = new VMInterpreter(program);
+            var executor = new VMExecutor(program);
+            assertEquals(interpreter.run("Main.main", 1_000_000), executor.run("Main.main", 1_000_000));
+            assertEquals(interpreter.output(), executor.output());
+            assertArrayEquals(Arrays.copyOf(interpreter.ram(), 5), Arrays.copyOf(executor.ram(), 5));
+            assertSameMemory("Main", interpreter.ram(), executor.ram());
+
+            program = compile(optimize, "Bench", "Math");
+            assertEquals(new VMInterpreter(program).run("Bench.run", 10_000_000),
+                new VMExecutor(program).run("Bench.run", 10_000_000));
+        }
+    }
+
+    @Test
+    public void testStepsExcludeLabels() {
+        var program = VMProgram.parse(List.of(
+            "function Main.main 0\nlabel A\npush constant 1\nif-goto B\npush constant 5\nlabel B\npush constant 7\nreturn\n"));
+        var executor = new VMExecutor(program);
+        assertEquals(7, executor.run("Main.main", 100));
+        // function, push, if-goto, push e return
+        assertEquals(5, executor.steps());
+    }
+
+    // programas sinteticos, com o interpretador como referencia: eles costumam terminar com recursao
+    // sem fim ou divisao por zero, e o executor tem que falhar do mesmo jeito
+    @Test
+    public void testGeneratedPrograms() {
+        var generator = new JackProgramGenerator(11).subroutines(6).statements(8).depth(2);
+        for (int i = 0; i < 10; i++) {
+            var name = "Gen" + i;
+            var vm = new JackCompiler(i % 2 == 0).compile(generator.generate(name)).vm();
+            var program = VMProgram.parse(List.of(vm));
+            var interpreter = new VMInterpreter(program);
+            var executor = new VMExecutor(program);
+            String expected, actual;
+            try {
+                expected = "returned " + interpreter.run(name + ".f0", 2_000_000);
+            } catch (IllegalStateException e) {
+                // o executor nao conta rotulos, entao o limite de passos nao e comparavel
+                if (e.getMessage().startsWith("step limit")) continue;
+                expected = e.getMessage();
+            }
+            try {
+                actual = "returned " + executor.run(name + ".f0", 2_000_000);
+            } catch (IllegalStateException e) {
+                actual = e.getMessage();
+            }
+            assertEquals(name, expected, actual);
+            if (expected.startsWith("returned"))
+                assertSameMemory(name, interpreter.ram(), executor.ram());
+        }
+    }
+
+    @Test
+    public void testStepLimit() {
+        var loop = VMProgram.parse(List.of("function Main.main 0\nlabel L\ngoto L\n"));
+        try {
+            new VMExecutor(loop).run("Main.main", 1000);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("step limit of 1000 reached", e.getMessage());
+        }
+    }
+
+}
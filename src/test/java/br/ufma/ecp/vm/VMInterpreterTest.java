@@ -0,0 +1,144 @@
+package br.ufma.ecp.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.ufma.ecp.JackCompiler;
+import br.ufma.ecp.TestSupport;
+
+public class VMInterpreterTest {
+
+    private static VMProgram compile(boolean optimize, String... classes) throws IOException {
+        var compiler = new JackCompiler(optimize);
+        var sources = new ArrayList<String>();
+        for (var name : classes) {
+            var result = compiler.compile(TestSupport.fromFile("vm/" + name + ".jack"));
+            assertTrue(result.diagnostics().toString(), result.success());
+            sources.add(result.vm());
+        }
+        return VMProgram.parse(sources);
+    }
+
+    @Test
+    public void testRunsCompiledProgram() throws IOException {
+        for (var optimize : new boolean[] { false, true }) {
+            var vm = new VMInterpreter(compile(optimize, "Main", "Point"));
+            assertEquals(0, vm.run("Main.main", 1_000_000));
+            assertEquals("25\n135\nbig\n-617\n5016\n7", vm.output());
+            assertTrue(vm.profile().get("Main.fact") > 0);
+            assertEquals(Long.valueOf(1), vm.osCalls().get("String.setInt"));
+        }
+    }
+
+    @Test
+    public void testProfileIsSortedByCost() throws IOException {
+        var vm = new VMInterpreter(compile(false, "Main", "Point"));
+        vm.run("Main.main", 1_000_000);
+        long previous = Long.MAX_VALUE;
+        long total = 0;
+        for (long steps : vm.profile().values()) {
+            assertTrue(steps <= previous);
+            previous = steps;
+            total += steps;
+        }
+        assertEquals(vm.steps(), total);
+        assertEquals("Main.main", vm.profile().keySet().iterator().next());
+    }
+
+    // benchmark de qualidade do codigo: mesmas contas, menos instrucoes VM executadas com -O
+    @Test
+    public void testOptimizedCodeExecutesFewerInstructions() throws IOException {
+        int expected = 0;
+        for (int i = 0; i < 200; i++)
+            expected = (short) (expected + 11 * i + 32 + (i != 0 ? i : 0));
+
+        var plain = new VMInterpreter(compile(false, "Bench", "Math"));
+        var optimized = new VMInterpreter(compile(true, "Bench", "Math"));
+        assertEquals(expected, plain.run("Bench.run", 10_000_000));
+        assertEquals(expected, optimized.run("Bench.run", 10_000_000));
+
+        // sem -O cada i * c passa pelo Math.multiply escrito em Jack
+        assertTrue(plain.profile().get("Math.multiply") > 100_000);
+        assertEquals(null, optimized.profile().get("Math.multiply"));
+        assertTrue(optimized.steps() * 10 < plain.steps());
+    }
+
+    // condicoes que nao sao 0 ou -1: o not bit a bit tem que sobreviver ao -O
+    @Test
+    public void testIntConditionsMatchWithAndWithoutOptimization() {
+        var source = "class Cond {\n"
+            + "  function int odd() { var int x; let x = 5; if (~(x & 1)) { return 1; } return 2; }\n"
+            + "  function int notMax() { if (-~32767) { return 1; } return -1; }\n"
+            + "}\n";
+        for (var optimize : new boolean[] { false, true }) {
+            var result = new JackCompiler(optimize).compile(source);
+            assertTrue(result.diagnostics().toString(), result.success());
+            var program = VMProgram.parse(List.of(result.vm()));
+            assertEquals(1, new VMInterpreter(program).run("Cond.odd", 10_000));
+            assertEquals(1, new VMInterpreter(program).run("Cond.notMax", 10_000));
+        }
+    }
+
+    @Test
+    public void testVmText() {
+        var program = VMProgram.parse(List.of(
+            "// soma de 1 a n\nfunction Sum.to 1\npush constant 0\npop local 0\nlabel LOOP\n"
+                + "push argument 0\nif-goto BODY\npush local 0\nreturn\nlabel BODY\npush local 0\n"
+                + "push argument 0\nadd\npop local 0\npush argument 0\npush constant 1\nsub\npop argument 0\ngoto LOOP\n",
+            "function Main.main 0\npush constant 100\ncall Sum.to 1\nreturn\n"));
+        var vm = new VMInterpreter(program);
+        assertEquals(5050, vm.run("Main.main", 10_000));
+        // function, push, call e return
+        assertEquals(4, vm.profile().get("Main.main").longValue());
+    }
+
+    @Test
+    public void testErrors() {
+        var loop = VMProgram.parse(List.of("function Main.main 0\nlabel L\ngoto L\n"));
+        try {
+            new VMInterpreter(loop).run("Main.main", 1000);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("step limit of 1000 reached in Main.main", e.getMessage());
+        }
+
+        var divide = VMProgram.parse(List.of("function Main.main 0\npush constant 1\npush constant 0\ncall Math.divide 2\nreturn\n"));
+        try {
+            new VMInterpreter(divide).run("Main.main", 1000);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Sys.error 3", e.getMessage());
+        }
+
+        try {
+            VMProgram.parse(List.of("function Main.main 0\ngoto NOWHERE\n"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("undefined label NOWHERE in Main.main", e.getMessage());
+        }
+
+        var halt = VMProgram.parse(List.of("function Main.main 0\ncall Sys.halt 0\npush constant 1\nreturn\n"));
+        assertEquals(0, new VMInterpreter(halt).run("Main.main", 1000));
+    }
+
+    // a chamada fica depois da posicao 32767: o endereco de retorno nao cabe em 16 bits
+    @Test
+    public void testReturnAddressBeyond16Bits() {
+        var vm = new StringBuilder("function Main.main 0\n");
+        for (int i = 0; i < 40_000; i++)
+            vm.append("push constant 0\npop temp 0\n");
+        vm.append("call Main.f 0\npush constant 1\nadd\nreturn\nfunction Main.f 0\npush constant 7\nreturn\n");
+        var program = VMProgram.parse(List.of(vm.toString()));
+        assertTrue(program.size() > 80_000);
+        assertEquals(8, new VMInterpreter(program).run("Main.main", 1_000_000));
+        assertEquals(8, new VMExecutor(program).run("Main.main", 1_000_000));
+    }
+
+}
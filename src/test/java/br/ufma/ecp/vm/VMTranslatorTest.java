@@ -0,0 +1,157 @@
+package br.ufma.ecp.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.ufma.ecp.JackCompiler;
+import br.ufma.ecp.TestSupport;
+import br.ufma.ecp.VMCode;
+
+public class VMTranslatorTest {
+
+    // roda o programa traduzido na CPU Hack e confere o valor de retorno e os statics com o interpretador
+    private static HackMachine assertSameAsInterpreter(VMProgram program, String entry) {
+        var translator = new VMTranslator(program);
+        var machine = new HackMachine(translator.translate(entry));
+        assertEquals(translator.instructionCount(), machine.size());
+        machine.run(machine.symbol("$HALT"), 50_000_000);
+
+        var interpreter = new VMInterpreter(program);
+        int expected = interpreter.run(entry, 10_000_000);
+        assertEquals(expected, machine.ram[VMInterpreter.STACK_START]);
+        assertEquals(VMInterpreter.STACK_START + 1, machine.ram[VMInterpreter.SP]);
+        for (int address = VMProgram.STATIC_START; address < VMProgram.STATIC_END; address++)
+            assertEquals("RAM[" + address + "]", interpreter.ram()[address], machine.ram[address]);
+        return machine;
+    }
+
+    private static VMProgram compile(boolean optimize, String... sources) {
+        var compiler = new JackCompiler(optimize);
+        var units = new ArrayList<VMCode>();
+        for (var source : sources) {
+            var result = compiler.compile(source);
+            assertTrue(result.diagnostics().toString(), result.success());
+            units.add(result.code());
+        }
+        return VMProgram.link(units);
+    }
+
+    @Test
+    public void testBench() throws IOException {
+        for (var optimize : new boolean[] { false, true }) {
+            var program = compile(optimize, TestSupport.fromFile("vm/Bench.jack"), TestSupport.fromFile("vm/Math.jack"));
+            assertSameAsInterpreter(program, "Bench.run");
+        }
+    }
+
+    @Test
+    public void testRecursionStaticsAndLocals() {
+        var main = String.join("\n",
+            "class Main {",
+            "    static int calls, last;",
+            "    function int main() {",
+            "        var int a, b, c, d, e, f;",
+            "        let f = Main.fib(12);",
+            "        let e = Main.sum(1, 2, 3, 4, 5);",
+            "        let d = f - e;",
+            "        let last = Other.count(d);",
+            "        return d + Other.count(1);",
+            "    }",
+            "    function int fib(int n) {",
+            "        let calls = calls + 1;",
+            "        if (n < 2) { return n; }",
+            "        return Main.fib(n - 1) + Main.fib(n - 2);",
+            "    }",
+            "    function int sum(int a, int b, int c, int d, int e) {",
+            "        return a + b + c + d + e;",
+            "    }",
+            "}");
+        var other = String.join("\n",
+            "class Other {",
+            "    static int total;",
+            "    function int count(int n) {",
+            "        let total = total + n;",
+            "        return total;",
+            "    }",
+            "}");
+        for (var optimize : new boolean[] { false, true })
+            assertSameAsInterpreter(compile(optimize, main, other), "Main.main");
+    }
+
+    // x - y transborda nesses pares; gt e lt tem que olhar os sinais
+    @Test
+    public void testComparisons() {
+        int[] values = { 0, 1, -1, 2, 32767, -32767, -32768, 20000, -20000 };
+        var vm = new StringBuilder("function Main.main 0\n");
+        int i = 0;
+        for (int x : values) {
+            for (int y : values) {
+                for (var command : new String[] { "gt", "lt", "eq" }) {
+                    vm.append(push(x)).append(push(y)).append(command).append('\n');
+                    vm.append("pop static ").append(i++ % 200).append('\n');
+                }
+            }
+        }
+        vm.append("push constant 0\nreturn\n");
+        assertSameAsInterpreter(VMProgram.parse(List.of(vm.toString())), "Main.main");
+    }
+
+    private static String push(int value) {
+        if (value == -32768)
+            return "push constant 32767\nnot\n";
+        return value < 0 ? "push constant " + -value + "\nneg\n" : "push constant " + value + "\n";
+    }
+
+    // this e that apontados para a area de statics, com indices pequenos e grandes
+    @Test
+    public void testPointerSegments() {
+        var vm = String.join("\n",
+            "function Main.main 0",
+            "push constant 100", "pop pointer 0",
+            "push constant 150", "pop pointer 1",
+            "push constant 11", "pop this 0",
+            "push constant 12", "pop this 3",
+            "push constant 13", "pop this 9",
+            "push constant 14", "pop that 2",
+            "push constant 15", "pop that 40",
+            "push this 9", "push that 40", "add",
+            "push this 3", "sub",
+            "pop temp 7",
+            "push temp 7",
+            "push pointer 1", "add",
+            "return",
+            "");
+        assertSameAsInterpreter(VMProgram.parse(List.of(vm)), "Main.main");
+    }
+
+    @Test
+    public void testUndefinedFunction() {
+        var program = VMProgram.parse(List.of("function Main.main 0\ncall Output.printInt 1\nreturn\n"));
+        try {
+            new VMTranslator(program).translate();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("undefined function Output.printInt"));
+        }
+    }
+
+    // uma chamada custa poucas instrucoes no lugar da chamada: o resto fica em $CALL e $RETURN
+    @Test
+    public void testCallSiteSize() {
+        var one = new VMTranslator(VMProgram.parse(List.of(
+            "function Main.main 0\npush constant 2\ncall Main.f 1\nreturn\nfunction Main.f 0\npush argument 0\nreturn\n")));
+        var two = new VMTranslator(VMProgram.parse(List.of(
+            "function Main.main 0\npush constant 2\ncall Main.f 1\ncall Main.f 1\nreturn\nfunction Main.f 0\npush argument 0\nreturn\n")));
+        one.translate();
+        two.translate();
+        assertEquals(8, two.instructionCount() - one.instructionCount());
+    }
+
+}